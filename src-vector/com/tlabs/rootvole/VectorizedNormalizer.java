@@ -0,0 +1,149 @@
+package com.tlabs.rootvole;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * An input normalizer that lower cases the input and finds the whitespace
+ * between words with the vector API, one vector of characters at a time.
+ * Only Latin-1 inputs are handled this way, where lower casing a character
+ * is adding 32 to the capital letters; other inputs, inputs with umlauts to
+ * fold and locales with special lower casing are passed to the scalar
+ * {@link InputNormalizer}, so the words are always the same.
+ * 
+ * Kept in the source directory src-vector, as it needs the compiler and JVM
+ * option --add-modules jdk.incubator.vector. It is only created through
+ * {@link InputNormalizer#create}, which falls back to the scalar normalizer
+ * if it wasn't compiled in or the module is missing.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+class VectorizedNormalizer extends InputNormalizer {
+	private static final VectorSpecies<Short> SPECIES =
+			ShortVector.SPECIES_PREFERRED;
+
+	/**
+	 * Constructor, see {@link InputNormalizer#create}.
+	 * 
+	 * @param toLower
+	 *            If the input is lower cased.
+	 * @param foldUmlauts
+	 *            If umlauts and sharp s are replaced by their ASCII spelling.
+	 * @param stopwords
+	 *            The stopwords, might be null.
+	 */
+	public VectorizedNormalizer(boolean toLower, boolean foldUmlauts,
+			StringSet stopwords) {
+		super(toLower, foldUmlauts, stopwords);
+	}
+
+	@Override
+	String[] normalize(String in, ParseScratch scratch) {
+		int len = in.length();
+		if (len < SPECIES.length() || (_toLower && !isSimpleLocale()))
+			return super.normalize(in, scratch);
+		char[] chars = scratch.getCharBuffer(len);
+		in.getChars(0, len, chars, 0);
+		// all characters below this one can be handled here
+		short limit = (short) (_foldUmlauts ? 0x80 : 0x100);
+		long[] separators = scratch.getSeparatorBuffer((len + 63) >>> 6);
+		int bound = SPECIES.loopBound(len), step = SPECIES.length();
+		int i = 0;
+		for (; i < bound; i += step) {
+			ShortVector v = ShortVector.fromCharArray(SPECIES, chars, i);
+			// chars above 0x7fff are negative shorts
+			if (v.compare(VectorOperators.LT, (short) 0).or(
+					v.compare(VectorOperators.GE, limit)).anyTrue())
+				return super.normalize(in, scratch);
+			if (_toLower) {
+				VectorMask<Short> upper = v.compare(VectorOperators.GE,
+						(short) 'A').and(v.compare(VectorOperators.LE,
+						(short) 'Z'));
+				upper = upper.or(v.compare(VectorOperators.GE, (short) 0xc0)
+						.and(v.compare(VectorOperators.LE, (short) 0xde))
+						.and(v.compare(VectorOperators.NE, (short) 0xd7)));
+				v.lanewise(VectorOperators.ADD, (short) 32, upper)
+						.intoCharArray(chars, i);
+			}
+			VectorMask<Short> blank = v.compare(VectorOperators.EQ, (short) ' ')
+					.or(v.compare(VectorOperators.EQ, (short) '\t'))
+					.or(v.compare(VectorOperators.EQ, (short) '\n'))
+					.or(v.compare(VectorOperators.EQ, (short) '\r'))
+					.or(v.compare(VectorOperators.EQ, (short) '\f'));
+			// the vector length divides 64, so a vector never spans two longs
+			if ((i & 63) == 0)
+				separators[i >>> 6] = 0;
+			separators[i >>> 6] |= blank.toLong() << (i & 63);
+		}
+		for (; i < len; i++) {
+			char c = chars[i];
+			if (c >= limit)
+				return super.normalize(in, scratch);
+			if (_toLower && ((c >= 'A' && c <= 'Z')
+					|| (c >= 0xc0 && c <= 0xde && c != 0xd7)))
+				chars[i] = c += 32;
+			if ((i & 63) == 0)
+				separators[i >>> 6] = 0;
+			if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f')
+				separators[i >>> 6] |= 1L << (i & 63);
+		}
+		return split(chars, len, separators, scratch);
+	}
+
+	/**
+	 * Cut the lower cased characters into words at the separator bits and
+	 * drop the stopwords.
+	 */
+	private String[] split(char[] chars, int len, long[] separators,
+			ParseScratch scratch) {
+		int maxWordNum = len / 2 + 1;
+		String[] words = scratch.getWordBuffer(maxWordNum);
+		int[] starts = scratch.getStartBuffer(maxWordNum);
+		int[] ends = scratch.getEndBuffer(maxWordNum);
+		int wordNum = 0;
+		int start = next(separators, 0, len, false);
+		while (start < len) {
+			int end = next(separators, start, len, true);
+			int hash = 0;
+			for (int k = start; k < end; k++) {
+				hash = 31 * hash + chars[k];
+			}
+			if (_stopwords == null
+					|| !_stopwords.contains(chars, start, end - start, hash)) {
+				words[wordNum] = new String(chars, start, end - start);
+				starts[wordNum] = start;
+				ends[wordNum++] = end;
+			}
+			start = next(separators, end, len, false);
+		}
+		if (wordNum == 0)
+			return NO_WORDS;
+		String[] ret = new String[wordNum];
+		System.arraycopy(words, 0, ret, 0, wordNum);
+		return ret;
+	}
+
+	/**
+	 * Find the next position from which on the separator bit is set or not.
+	 * 
+	 * @return The position or len if there is none.
+	 */
+	private static int next(long[] separators, int from, int len,
+			boolean separator) {
+		int word = from >>> 6;
+		int wordNum = (len + 63) >>> 6;
+		if (word >= wordNum)
+			return len;
+		long bits = separator ? separators[word] : ~separators[word];
+		bits &= -1L << (from & 63);
+		while (bits == 0) {
+			if (++word == wordNum)
+				return len;
+			bits = separator ? separators[word] : ~separators[word];
+		}
+		return Math.min(len, (word << 6) + Long.numberOfTrailingZeros(bits));
+	}
+}
@@ -0,0 +1,604 @@
+package com.tlabs.rootvole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.felix.util.Preprocessor;
+import com.tlabs.rootvole.PostingsIndex.Posting;
+import com.tlabs.rootvole.TokenAutomaton.MatchList;
+
+/**
+ * A snapshot of a configured parser, created by {@link Parser#compile()}.
+ * The stopwords and value descriptions are copied and the vocabularies are
+ * snapshots that share their entries, see {@link Vocabulary#snapshot()}. A
+ * load, reload or compaction of a vocabulary replaces its entries instead of
+ * changing them, so the compiled parser keeps the ones it was compiled from.
+ * Only the changes made through {@link Vocabulary#putEntry(String)} and
+ * {@link Vocabulary#removeEntry(String)} are seen until the entries are
+ * replaced, see {@link #isOutdated()}. Any number of threads can call
+ * {@link #parse(String, int)} at the same time without locking.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class CompiledParser {
+	/**
+	 * Default number of inputs a batch task parses without forking further.
+	 */
+	public static final int DEFAULT_BATCH_CHUNK_SIZE = 64;
+	private final String _id, _version;
+	private final Preprocessor _queryPreprocessor;
+	private final boolean _inputToLower, _foldUmlauts;
+	private final InputNormalizer _normalizer;
+	private final ValueScanner _valueScanner;
+	private final PostingsIndex _index;
+	private final TokenAutomaton _automaton;
+	private final Vocabulary[] _vocabularies;
+	/**
+	 * The mapped vocabularies by position, null for compiled ones.
+	 */
+	private final SpanLookup[] _mapped;
+	private final boolean _hasMapped;
+
+	/**
+	 * Constructor, use {@link Parser#compile()}.
+	 * 
+	 * @param id
+	 *            The parser id.
+	 * @param version
+	 *            The parser version.
+	 * @param queryPreprocessor
+	 *            The preprocessor, might be null. Must be thread safe.
+	 * @param inputToLower
+	 *            If the input is lower cased.
+	 * @param foldUmlauts
+	 *            If umlauts in the input are folded, the keys of the index
+	 *            and the stopwords must be folded as well.
+	 * @param vectorized
+	 *            If the input is normalized with the vector API if available.
+	 * @param stopwords
+	 *            The stopwords, might be null.
+	 * @param valueDescriptions
+	 *            Copies of the value descriptions, might be empty.
+	 * @param index
+	 *            The postings index of the base entries of all vocabularies.
+	 * @param vocabularies
+	 *            Snapshots of the vocabularies, see
+	 *            {@link Vocabulary#snapshot()}. Mapped vocabularies and the
+	 *            changes since a vocabulary was compacted are looked up per
+	 *            span instead of being part of the index.
+	 */
+	CompiledParser(String id, String version, Preprocessor queryPreprocessor,
+			boolean inputToLower, boolean foldUmlauts, boolean vectorized,
+			StringSet stopwords,
+			ValueDescription[] valueDescriptions, PostingsIndex index,
+			Vocabulary[] vocabularies) {
+		_id = id;
+		_version = version;
+		_queryPreprocessor = queryPreprocessor;
+		_inputToLower = inputToLower;
+		_foldUmlauts = foldUmlauts;
+		_normalizer = InputNormalizer.create(inputToLower, foldUmlauts,
+				stopwords, vectorized);
+		_valueScanner = new ValueScanner(valueDescriptions);
+		_index = index;
+		_automaton = TokenAutomaton.compile(index);
+		_vocabularies = vocabularies;
+		_mapped = new SpanLookup[vocabularies.length];
+		boolean hasMapped = false;
+		for (int v = 0; v < vocabularies.length; v++) {
+			if (vocabularies[v] instanceof MappedVocabulary) {
+				_mapped[v] = (MappedVocabulary) vocabularies[v];
+				hasMapped = true;
+			}
+		}
+		_hasMapped = hasMapped;
+	}
+
+	/**
+	 * Parse an input string.
+	 * 
+	 * @param in
+	 *            The input string.
+	 * @param contextDepth
+	 *            The number of words that are considered to be an identifiable
+	 *            vocabulary item, e.g. "2", or
+	 *            {@link Constants#CONTEXT_DEPTH_AUTO} for the length of the
+	 *            longest vocabulary entry.
+	 * @return The result, might be empty if no matches were found.
+	 */
+	public ParseResult parse(String in, int contextDepth) {
+		return parse(in, contextDepth, new ParseScratch());
+	}
+
+	/**
+	 * Parse an input string reusing the buffers of a scratch object.
+	 * 
+	 * @param in
+	 *            The input string.
+	 * @param contextDepth
+	 *            The number of words that are considered to be an identifiable
+	 *            vocabulary item, e.g. "2", or
+	 *            {@link Constants#CONTEXT_DEPTH_AUTO}.
+	 * @param scratch
+	 *            The buffers, must not be used by another thread at the same
+	 *            time.
+	 * @return The result, might be empty if no matches were found.
+	 */
+	public ParseResult parse(String in, int contextDepth,
+			ParseScratch scratch) {
+		try {
+			ParseResult parseResult = new ParseResult(in, _id, _version);
+			if (_queryPreprocessor != null) {
+				parseResult.setOrigString(in);
+				in = _queryPreprocessor.process(in);
+				parseResult.setParsedString(in);
+			}
+			if (_inputToLower && _queryPreprocessor == null) {
+				parseResult.setOrigString(in);
+			}
+			String[] words = _normalizer.normalize(in, scratch);
+			String[] testWords = _valueScanner.scan(words, parseResult,
+					scratch);
+			parseResult.setRestArray(testWords);
+			// read once, so the whole input sees the same changes
+			VocabularyDelta[] deltas = getDeltas();
+			if (contextDepth == Constants.CONTEXT_DEPTH_AUTO) {
+				contextDepth = getMaxDepth(deltas);
+			}
+			if (testWords.length > 0) {
+				MatchList matches = scratch._matches;
+				int[] ids = _automaton.getDictionary().encode(testWords,
+						scratch._ids);
+				scratch._ids = ids;
+				_automaton.match(ids, testWords.length, contextDepth, matches);
+				Vector<Entity> entities = parseResult.getEntities();
+				addMatchEntities(matches, deltas, entities);
+				if (_hasMapped || deltas != null) {
+					addSpanEntities(testWords, 0, contextDepth, deltas,
+							entities);
+				}
+				setCharSpans(entities, getTestOffsets(words, testWords,
+						scratch._starts, scratch), getTestOffsets(words,
+						testWords, scratch._ends, scratch));
+			}
+			parseResult.checkDoubles();
+			return parseResult;
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Start an incremental parse, e.g. of the growing partial hypotheses of a
+	 * speech recognizer. The session stays with this compiled parser, see
+	 * {@link Parser#newSession(int)} for one that follows the parser.
+	 * 
+	 * @param contextDepth
+	 *            The context depth, see {@link #parse(String, int)}.
+	 * @return The session.
+	 */
+	public ParseSession newSession(int contextDepth) {
+		return new ParseSession(null, this, contextDepth);
+	}
+
+	/**
+	 * Parse the next input of a session. Only the words after the part the
+	 * input has in common with the one before are looked up, the entities
+	 * ending before are kept.
+	 * 
+	 * @param session
+	 *            The session.
+	 * @param in
+	 *            The input.
+	 * @return The result or null if parsing failed.
+	 */
+	ParseResult parse(ParseSession session, String in) {
+		try {
+			ParseScratch scratch = session._scratch;
+			ParseResult parseResult = new ParseResult(in, _id, _version);
+			String text = in;
+			if (_queryPreprocessor != null) {
+				parseResult.setOrigString(in);
+				text = _queryPreprocessor.process(in);
+				parseResult.setParsedString(text);
+			}
+			if (_inputToLower && _queryPreprocessor == null) {
+				parseResult.setOrigString(in);
+			}
+			String[] words = session.normalize(text, _normalizer);
+			String[] testWords = _valueScanner.scan(words, session._same,
+					session._values, parseResult, scratch);
+			parseResult.setRestArray(testWords);
+			VocabularyDelta[] deltas = getDeltas();
+			int from = session.resume(deltas);
+			int contextDepth = session._contextDepth;
+			if (contextDepth == Constants.CONTEXT_DEPTH_AUTO) {
+				contextDepth = getMaxDepth(deltas);
+			}
+			TokenDictionary dictionary = _automaton.getDictionary();
+			for (int i = from; i < testWords.length; i++) {
+				session._ids[i] = dictionary.getId(testWords[i]);
+			}
+			MatchList matches = scratch._matches;
+			matches.clear();
+			_automaton.match(session._ids, from, testWords.length,
+					contextDepth, session._states, matches);
+			Vector<Entity> matchEntities = session._matchEntities;
+			int matchFrom = matchEntities.size();
+			addMatchEntities(matches, deltas, matchEntities);
+			Vector<Entity> spanEntities = session._spanEntities;
+			int spanFrom = spanEntities.size();
+			if (_hasMapped || deltas != null) {
+				addSpanEntities(testWords, from, contextDepth, deltas,
+						spanEntities);
+			}
+			// the entities kept are before the first word that moved
+			setCharSpans(matchEntities.subList(matchFrom,
+					matchEntities.size()), session._testStarts,
+					session._testEnds);
+			setCharSpans(spanEntities.subList(spanFrom, spanEntities.size()),
+					session._testStarts, session._testEnds);
+			session.addEntities(parseResult, matchFrom, spanFrom);
+			return parseResult;
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Create entities for the postings of automaton matches, leaving out the
+	 * ones of entries changed since the parser was compiled.
+	 */
+	private void addMatchEntities(MatchList matches,
+			VocabularyDelta[] deltas, List<Entity> entities) {
+		for (int i = 0; i < matches.size(); i++) {
+			String key = _automaton.getKey(matches, i);
+			MultiStringWord target = new MultiStringWord(key,
+					matches.getOffset(i), matches.getLength(i));
+			for (Posting posting : _automaton.getPostings(matches, i)) {
+				if (deltas != null
+						&& isChanged(deltas, posting, key, key.hashCode()))
+					continue;
+				Entity entity = new Entity(posting.getVocabId());
+				entity.setId(posting.getId());
+				entity.setValue(target);
+				entities.add(entity);
+			}
+		}
+	}
+
+	/**
+	 * Get the character offsets of the words left by the value scanner from
+	 * the offsets of all words, these if the scanner found no value.
+	 */
+	private static int[] getTestOffsets(String[] words, String[] testWords,
+			int[] offsets, ParseScratch scratch) {
+		if (testWords == words)
+			return offsets;
+		int[] ret = new int[testWords.length];
+		int k = 0;
+		for (int i = 0; i < words.length; i++) {
+			if (!scratch._consumed[i])
+				ret[k++] = offsets[i];
+		}
+		return ret;
+	}
+
+	/**
+	 * Set the position of each entity in the input.
+	 * 
+	 * @param entities
+	 *            The entities, their word offsets count the words left by the
+	 *            value scanner.
+	 * @param starts
+	 *            The offset of the first character of each of these words.
+	 * @param ends
+	 *            The offset after the last character of each word.
+	 */
+	private static void setCharSpans(List<Entity> entities, int[] starts,
+			int[] ends) {
+		for (Entity entity : entities) {
+			MultiStringWord word = entity.getValue();
+			entity.setCharSpan(starts[word.get_offset()],
+					ends[word.get_end() - 1]);
+		}
+	}
+
+	/**
+	 * Test whether a vocabulary was reloaded or compacted after this parser
+	 * was compiled. The parser still works with the entries it was compiled
+	 * from, but changes made to the vocabulary afterwards aren't seen, so it
+	 * should be compiled again, see {@link Parser#compile()}.
+	 * 
+	 * @return True if the parser misses later changes.
+	 */
+	public boolean isOutdated() {
+		for (Vocabulary vocab : _vocabularies) {
+			if (vocab.isReplaced())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Get the changes of the vocabularies since they were compacted.
+	 * 
+	 * @return The changes by position or null if there are none.
+	 */
+	private VocabularyDelta[] getDeltas() {
+		VocabularyDelta[] deltas = null;
+		for (int v = 0; v < _vocabularies.length; v++) {
+			VocabularyDelta delta = _vocabularies[v].getDelta();
+			if (delta == null)
+				continue;
+			if (deltas == null)
+				deltas = new VocabularyDelta[_vocabularies.length];
+			deltas[v] = delta;
+		}
+		return deltas;
+	}
+
+	/**
+	 * Test whether a posting of the index belongs to an entry that was
+	 * changed or removed since it was compiled. For single ids the id of a
+	 * changed entry replaces the compiled one.
+	 */
+	private boolean isChanged(VocabularyDelta[] deltas, Posting posting,
+			CharSequence key, int hash) {
+		int v = posting.getVocabIndex();
+		VocabularyDelta delta = deltas[v];
+		if (delta == null)
+			return false;
+		if (delta.isChanged(posting.getId()))
+			return true;
+		return !_vocabularies[v].isMultiplIDs()
+				&& delta.lookup(key, hash) != null;
+	}
+
+	private SpanLookup getSpanLookup(int v, VocabularyDelta[] deltas) {
+		if (_mapped[v] != null)
+			return _mapped[v];
+		return deltas != null ? deltas[v] : null;
+	}
+
+	/**
+	 * Look up all spans of up to contextDepth words in the mapped
+	 * vocabularies and the changes, the hash code of a span is extended word
+	 * by word. Only spans ending after the first minEnd words are looked up.
+	 */
+	private void addSpanEntities(String[] words, int minEnd, int contextDepth,
+			VocabularyDelta[] deltas, List<Entity> entities) {
+		for (int v = 0; v < _vocabularies.length; v++) {
+			SpanLookup lookup = getSpanLookup(v, deltas);
+			if (lookup == null)
+				continue;
+			String vocabId = _vocabularies[v].getId();
+			int depth = Math.min(contextDepth, lookup.getMaxWordNum());
+			for (int i = Math.max(0, minEnd - depth); i < words.length; i++) {
+				int maxLen = Math.min(depth, words.length - i);
+				int hash = words[i].hashCode();
+				for (int len = 1; len <= maxLen; len++) {
+					if (len > 1)
+						hash = TokenSpan.extendHash(hash, words[i + len - 1]);
+					if (i + len <= minEnd)
+						continue;
+					TokenSpan span = new TokenSpan(words, i, len);
+					List<String> ids = lookup.lookupIDs(span, hash);
+					if (ids == null)
+						continue;
+					MultiStringWord target = span.toMultiStringWord();
+					for (String id : ids) {
+						Entity entity = new Entity(vocabId);
+						entity.setId(id);
+						entity.setValue(target);
+						entities.add(entity);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Parse a batch of inputs in the common fork join pool.
+	 * 
+	 * @param inputs
+	 *            The input strings.
+	 * @param contextDepth
+	 *            The context depth, see {@link #parse(String, int)}.
+	 * @return The results in the order of the inputs.
+	 */
+	public List<ParseResult> parseAll(List<String> inputs, int contextDepth) {
+		return parseAll(inputs, contextDepth, ForkJoinPool.commonPool(),
+				DEFAULT_BATCH_CHUNK_SIZE);
+	}
+
+	/**
+	 * Parse a stream of inputs in a fork join pool. The stream is collected
+	 * first.
+	 * 
+	 * @param inputs
+	 *            The input strings.
+	 * @param contextDepth
+	 *            The context depth, see {@link #parse(String, int)}.
+	 * @param pool
+	 *            The pool that does the work.
+	 * @return The results in the order of the inputs.
+	 */
+	public List<ParseResult> parseAll(Stream<String> inputs, int contextDepth,
+			ForkJoinPool pool) {
+		return parseAll(inputs.collect(Collectors.<String> toList()),
+				contextDepth, pool, DEFAULT_BATCH_CHUNK_SIZE);
+	}
+
+	/**
+	 * Parse a batch of inputs in a fork join pool. The batch is split until
+	 * parts have at most chunkSize inputs, each part reuses one scratch
+	 * object. Batches not larger than chunkSize are parsed by the calling
+	 * thread without forking.
+	 * 
+	 * @param inputs
+	 *            The input strings.
+	 * @param contextDepth
+	 *            The context depth, see {@link #parse(String, int)}.
+	 * @param pool
+	 *            The pool that does the work.
+	 * @param chunkSize
+	 *            The number of inputs parsed by one task.
+	 * @return The results in the order of the inputs, null for inputs that
+	 *         couldn't be parsed.
+	 */
+	public List<ParseResult> parseAll(List<String> inputs, int contextDepth,
+			ForkJoinPool pool, int chunkSize) {
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("chunk size must be positive: "
+					+ chunkSize);
+		String[] in = inputs.toArray(new String[inputs.size()]);
+		ParseResult[] results = new ParseResult[in.length];
+		BatchTask task = new BatchTask(in, results, 0, in.length,
+				contextDepth, chunkSize);
+		if (in.length <= chunkSize) {
+			task.compute();
+		} else {
+			pool.invoke(task);
+		}
+		return new ArrayList<ParseResult>(Arrays.asList(results));
+	}
+
+	/**
+	 * Parses a range of a batch, splits it into halves while it's larger than
+	 * the chunk size.
+	 */
+	private class BatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final String[] _inputs;
+		private final ParseResult[] _results;
+		private final int _from, _to, _contextDepth, _chunkSize;
+
+		BatchTask(String[] inputs, ParseResult[] results, int from, int to,
+				int contextDepth, int chunkSize) {
+			_inputs = inputs;
+			_results = results;
+			_from = from;
+			_to = to;
+			_contextDepth = contextDepth;
+			_chunkSize = chunkSize;
+		}
+
+		@Override
+		protected void compute() {
+			if (_to - _from <= _chunkSize) {
+				ParseScratch scratch = new ParseScratch();
+				for (int i = _from; i < _to; i++) {
+					_results[i] = parse(_inputs[i], _contextDepth, scratch);
+				}
+				return;
+			}
+			int mid = (_from + _to) >>> 1;
+			invokeAll(new BatchTask(_inputs, _results, _from, mid,
+					_contextDepth, _chunkSize), new BatchTask(_inputs,
+					_results, mid, _to, _contextDepth, _chunkSize));
+		}
+	}
+
+	/**
+	 * Look up a string in all vocabularies at once.
+	 * 
+	 * @param s
+	 *            The string, e.g. "alfa romeo", folded like the input if
+	 *            umlauts are folded.
+	 * @return The postings of all vocabularies containing the string or null.
+	 */
+	public Posting[] lookup(String s) {
+		if (_foldUmlauts)
+			s = InputNormalizer.fold(s);
+		return lookup(s, s.hashCode());
+	}
+
+	/**
+	 * Look up a sequence of words in all vocabularies at once, without joining
+	 * them to a string.
+	 * 
+	 * @param span
+	 *            The words, e.g. a span from {@link InputString#getSpans(int)}.
+	 * @return The postings of all vocabularies containing the words or null.
+	 */
+	public Posting[] lookup(TokenSpan span) {
+		return lookup(span, span.hashCode());
+	}
+
+	private Posting[] lookup(CharSequence s, int hash) {
+		Posting[] postings = _index.lookup(s, hash);
+		VocabularyDelta[] deltas = getDeltas();
+		if (!_hasMapped && deltas == null)
+			return postings;
+		Vector<Posting> merged = new Vector<Posting>();
+		int p = 0;
+		// postings are ordered by the position of their vocabulary
+		for (int v = 0; v < _vocabularies.length; v++) {
+			while (postings != null && p < postings.length
+					&& postings[p].getVocabIndex() == v) {
+				if (deltas == null || !isChanged(deltas, postings[p], s, hash))
+					merged.add(postings[p]);
+				p++;
+			}
+			SpanLookup lookup = getSpanLookup(v, deltas);
+			List<String> ids = lookup != null ? lookup.lookupIDs(s, hash)
+					: null;
+			if (ids == null)
+				continue;
+			for (String id : ids) {
+				merged.add(new Posting(v, _vocabularies[v].getId(), id));
+			}
+		}
+		if (merged.isEmpty())
+			return null;
+		return merged.toArray(new Posting[merged.size()]);
+	}
+
+	/**
+	 * Get the number of words of the longest vocabulary entry, i.e. the
+	 * context depth used for {@link Constants#CONTEXT_DEPTH_AUTO}.
+	 * 
+	 * @return The maximal depth.
+	 */
+	public int getMaxDepth() {
+		return getMaxDepth(getDeltas());
+	}
+
+	private int getMaxDepth(VocabularyDelta[] deltas) {
+		int depth = _automaton.getMaxDepth();
+		for (int v = 0; v < _vocabularies.length; v++) {
+			SpanLookup lookup = getSpanLookup(v, deltas);
+			if (lookup != null)
+				depth = Math.max(depth, lookup.getMaxWordNum());
+		}
+		return depth;
+	}
+
+	/**
+	 * Get the id string.
+	 * 
+	 * @return The id.
+	 */
+	public String getId() {
+		return _id;
+	}
+
+	/**
+	 * Get the version String.
+	 * 
+	 * @return The version or empty if not set.
+	 */
+	public String getVersion() {
+		return _version;
+	}
+}
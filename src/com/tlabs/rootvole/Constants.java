@@ -21,5 +21,10 @@ public class Constants {
 	public final static String WORDCLASS_VERB = "V";
 	public final static String WORDCLASS_ADJECTIVE = "A";
 	public final static String VOCAB_DEFAULT_SEPARATOR = ",";
+	/**
+	 * Context depth that makes the parser use the number of words of the
+	 * longest vocabulary entry.
+	 */
+	public final static int CONTEXT_DEPTH_AUTO = 0;
 
 }
@@ -11,6 +11,7 @@ public class Entity {
 	String _vocabId = null, _id = null;
 	MultiStringWord _value = null;
 	boolean _isSingleSlot = false;
+	int _charStart = -1, _charEnd = -1;
 
 	/**
 	 * Create a new entity object.
@@ -23,6 +24,23 @@ public class Entity {
 		this._vocabId = _vocabId;
 	}
 
+	/**
+	 * Copy constructor, the value word is copied as well.
+	 * 
+	 * @param entity
+	 *            The entity to copy.
+	 */
+	public Entity(Entity entity) {
+		super();
+		_vocabId = entity._vocabId;
+		_id = entity._id;
+		_isSingleSlot = entity._isSingleSlot;
+		_charStart = entity._charStart;
+		_charEnd = entity._charEnd;
+		if (entity._value != null)
+			_value = new MultiStringWord(entity._value);
+	}
+
 	/**
 	 * Test if this entity stems from a single slot vocabulary, i.e. a vocab
 	 * that should only deliver maximum one value.
@@ -86,6 +104,40 @@ public class Entity {
 		this._id = _id;
 	}
 
+	/**
+	 * Get the position of the first character of the matched words in the
+	 * input after the query preprocessor if the parser has one, see
+	 * {@link ParseResult#getParsedString()}.
+	 * 
+	 * @return The character offset or -1 if not known.
+	 */
+	public int getCharStart() {
+		return _charStart;
+	}
+
+	/**
+	 * Get the position after the last character of the matched words in the
+	 * input, e.g. 10 for "alfa romeo" in "alfa romeo black".
+	 * 
+	 * @return The character offset or -1 if not known.
+	 */
+	public int getCharEnd() {
+		return _charEnd;
+	}
+
+	/**
+	 * Set the position of the matched words in the input.
+	 * 
+	 * @param start
+	 *            The offset of the first character.
+	 * @param end
+	 *            The offset after the last character.
+	 */
+	public void setCharSpan(int start, int end) {
+		_charStart = start;
+		_charEnd = end;
+	}
+
 	/**
 	 * Get the vocabulary id set in the constructor.
 	 * 
@@ -0,0 +1,189 @@
+package com.tlabs.rootvole;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * The ids of the lookup strings of a vocabulary with multiple ids per
+ * string, e.g. "2342" and "4234" for "300". Lookup strings and ids are
+ * interned to ints and the postings are stored in two int arrays, the
+ * offsets of the postings of each string and the id numbers, instead of a
+ * vector of strings per lookup string.
+ * 
+ * Postings are appended to a pending list first and merged into the arrays
+ * by {@link #compact()}, which the vocabulary calls after loading. Postings
+ * of a string keep the order they were added in.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class IDPostings {
+	private static final int[] NONE = new int[0];
+	private final TokenDictionary _keys = new TokenDictionary();
+	private final TokenDictionary _ids = new TokenDictionary();
+	private int[] _offsets = new int[] { 0 };
+	private int[] _values = NONE;
+	private int[] _pendingKeys = NONE, _pendingIds = NONE;
+	private int _pendingNum = 0;
+
+	/**
+	 * Add an id for a lookup string.
+	 * 
+	 * @param key
+	 *            The lookup string, e.g. "300".
+	 * @param id
+	 *            The id, e.g. "2342".
+	 */
+	public void add(String key, String id) {
+		if (_pendingNum == _pendingKeys.length) {
+			int len = Math.max(16, _pendingNum * 2);
+			_pendingKeys = copy(_pendingKeys, len);
+			_pendingIds = copy(_pendingIds, len);
+		}
+		_pendingKeys[_pendingNum] = _keys.add(key);
+		_pendingIds[_pendingNum] = _ids.add(id);
+		_pendingNum++;
+	}
+
+	private static int[] copy(int[] a, int len) {
+		int[] ret = new int[len];
+		System.arraycopy(a, 0, ret, 0, Math.min(a.length, len));
+		return ret;
+	}
+
+	/**
+	 * Merge the pending postings into the arrays, a counting sort by lookup
+	 * string.
+	 */
+	public void compact() {
+		if (_pendingNum == 0)
+			return;
+		int keyNum = _keys.size(), oldKeyNum = _offsets.length - 1;
+		int[] offsets = new int[keyNum + 1];
+		for (int k = 0; k < oldKeyNum; k++) {
+			offsets[k + 1] = _offsets[k + 1] - _offsets[k];
+		}
+		for (int i = 0; i < _pendingNum; i++) {
+			offsets[_pendingKeys[i] + 1]++;
+		}
+		for (int k = 0; k < keyNum; k++) {
+			offsets[k + 1] += offsets[k];
+		}
+		int[] values = new int[offsets[keyNum]];
+		int[] fill = new int[keyNum];
+		for (int k = 0; k < oldKeyNum; k++) {
+			int len = _offsets[k + 1] - _offsets[k];
+			System.arraycopy(_values, _offsets[k], values, offsets[k], len);
+			fill[k] = len;
+		}
+		for (int i = 0; i < _pendingNum; i++) {
+			int k = _pendingKeys[i];
+			values[offsets[k] + fill[k]++] = _pendingIds[i];
+		}
+		_offsets = offsets;
+		_values = values;
+		_pendingKeys = NONE;
+		_pendingIds = NONE;
+		_pendingNum = 0;
+	}
+
+	/**
+	 * Get the ids of a lookup string. Pending postings are searched one by
+	 * one, so this is only fast after {@link #compact()}.
+	 * 
+	 * @param key
+	 *            The lookup string.
+	 * @return A view of the ids or null if the string has none.
+	 */
+	public IDList get(String key) {
+		int k = _keys.getId(key);
+		if (k == TokenDictionary.UNKNOWN)
+			return null;
+		if (_pendingNum == 0)
+			return new IDList(_ids, _values, _offsets[k], _offsets[k + 1]);
+		int start = k < _offsets.length - 1 ? _offsets[k] : 0;
+		int end = k < _offsets.length - 1 ? _offsets[k + 1] : 0;
+		int[] values = new int[end - start + _pendingNum];
+		System.arraycopy(_values, start, values, 0, end - start);
+		int len = end - start;
+		for (int i = 0; i < _pendingNum; i++) {
+			if (_pendingKeys[i] == k)
+				values[len++] = _pendingIds[i];
+		}
+		return new IDList(_ids, values, 0, len);
+	}
+
+	/**
+	 * Copy the postings, e.g. to add more while the original is still read.
+	 * 
+	 * @return The copy, compacted.
+	 */
+	IDPostings copy() {
+		IDPostings copy = new IDPostings();
+		for (int k = 0; k < _keys.size(); k++) {
+			String key = _keys.getToken(k);
+			for (String id : get(key)) {
+				copy.add(key, id);
+			}
+		}
+		copy.compact();
+		return copy;
+	}
+
+	/**
+	 * Get all lookup strings.
+	 * 
+	 * @return A view of the strings, in the order they were first added.
+	 */
+	public List<String> getKeys() {
+		return new AbstractList<String>() {
+			@Override
+			public String get(int index) {
+				return _keys.getToken(index);
+			}
+
+			@Override
+			public int size() {
+				return _keys.size();
+			}
+		};
+	}
+
+	/**
+	 * Get the number of lookup strings.
+	 * 
+	 * @return The number of strings.
+	 */
+	public int size() {
+		return _keys.size();
+	}
+
+	/**
+	 * A read only view of the ids of one lookup string.
+	 */
+	public static class IDList extends AbstractList<String> {
+		private final TokenDictionary _ids;
+		private final int[] _values;
+		private final int _start, _end;
+
+		IDList(TokenDictionary ids, int[] values, int start, int end) {
+			_ids = ids;
+			_values = values;
+			_start = start;
+			_end = end;
+		}
+
+		@Override
+		public String get(int index) {
+			if (index < 0 || index >= _end - _start)
+				throw new IndexOutOfBoundsException("index: " + index
+						+ ", size: " + size());
+			return _ids.getToken(_values[_start + index]);
+		}
+
+		@Override
+		public int size() {
+			return _end - _start;
+		}
+	}
+}
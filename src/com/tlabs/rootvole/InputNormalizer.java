@@ -0,0 +1,254 @@
+package com.tlabs.rootvole;
+
+import java.util.Locale;
+
+/**
+ * Turns an input into the words the parser looks up in one pass over its
+ * characters: lower cases them, optionally folds umlauts to their ASCII
+ * spelling, e.g. "k&auml;se" to "kaese", splits at whitespace and drops
+ * stopwords. This replaces lower casing the input, splitting it with
+ * StringUtil.stringToArray and removing the stopwords from the array, each of
+ * which copied the input.
+ * 
+ * Words are split at the same characters as by StringUtil.stringToArray,
+ * blank, tab, new line, carriage return and form feed. Words with
+ * characters that String.toLowerCase treats depending on their context or
+ * the locale, e.g. a Greek capital sigma, are lower cased with
+ * String.toLowerCase, so the words are always the same as before. The start
+ * and end of each word in the input are kept, see {@link #tokenize(String)}.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class InputNormalizer {
+	static final String[] NO_WORDS = new String[0];
+	final boolean _toLower, _foldUmlauts;
+	final StringSet _stopwords;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param toLower
+	 *            If the input is lower cased.
+	 * @param foldUmlauts
+	 *            If umlauts and sharp s are replaced by their ASCII spelling.
+	 * @param stopwords
+	 *            The stopwords, might be null. Must be folded already if
+	 *            umlauts are folded, see {@link #fold(String)}.
+	 */
+	public InputNormalizer(boolean toLower, boolean foldUmlauts,
+			StringSet stopwords) {
+		_toLower = toLower;
+		_foldUmlauts = foldUmlauts;
+		_stopwords = stopwords;
+	}
+
+	/**
+	 * Create a normalizer, optionally the one using the vector API, see
+	 * {@link Parser#Parser(String, boolean)}. That one is only available if
+	 * it was compiled from src-vector and the jdk.incubator.vector module was
+	 * added to the JVM, else the scalar one is used.
+	 * 
+	 * @param toLower
+	 *            If the input is lower cased.
+	 * @param foldUmlauts
+	 *            If umlauts and sharp s are replaced by their ASCII spelling.
+	 * @param stopwords
+	 *            The stopwords, might be null.
+	 * @param vectorized
+	 *            True to try the vector API.
+	 * @return The normalizer.
+	 */
+	static InputNormalizer create(boolean toLower, boolean foldUmlauts,
+			StringSet stopwords, boolean vectorized) {
+		if (vectorized) {
+			try {
+				// loaded by name so this class doesn't need the module
+				Class<?> c = Class
+						.forName("com.tlabs.rootvole.VectorizedNormalizer");
+				return (InputNormalizer) c.getConstructor(boolean.class,
+						boolean.class, StringSet.class).newInstance(toLower,
+						foldUmlauts, stopwords);
+			} catch (Exception e) {
+				// not compiled in
+			} catch (LinkageError e) {
+				// the module is missing
+			}
+		}
+		return new InputNormalizer(toLower, foldUmlauts, stopwords);
+	}
+
+	/**
+	 * Replace umlauts and sharp s by their ASCII spelling, e.g. for the
+	 * vocabulary entries of a parser that folds its input.
+	 * 
+	 * @param s
+	 *            The string, e.g. "Gr&ouml;&szlig;e".
+	 * @return The folded string, e.g. "Groesse", or s if nothing changed.
+	 */
+	public static String fold(String s) {
+		StringBuilder buf = null;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			String folded = fold(c);
+			if (folded == null) {
+				if (buf != null)
+					buf.append(c);
+				continue;
+			}
+			if (buf == null) {
+				buf = new StringBuilder(s.length() + 4);
+				buf.append(s, 0, i);
+			}
+			buf.append(folded);
+		}
+		return buf == null ? s : buf.toString();
+	}
+
+	private static String fold(char c) {
+		switch (c) {
+		case '\u00e4':
+			return "ae";
+		case '\u00f6':
+			return "oe";
+		case '\u00fc':
+			return "ue";
+		case '\u00df':
+			return "ss";
+		case '\u00c4':
+			return "Ae";
+		case '\u00d6':
+			return "Oe";
+		case '\u00dc':
+			return "Ue";
+		default:
+			return null;
+		}
+	}
+
+	private static boolean isSeparator(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+	}
+
+	/**
+	 * Test whether lower casing a character on its own gives the same as
+	 * String.toLowerCase, which isn't the case for the dotted capital I, the
+	 * capital sigma, surrogate pairs and in Turkish, Azeri and Lithuanian.
+	 */
+	private static boolean isSimpleLowerCase(char c) {
+		return c != '\u0130' && c != '\u03a3' && !Character.isSurrogate(c);
+	}
+
+	static boolean isSimpleLocale() {
+		String language = Locale.getDefault().getLanguage();
+		return !language.equals("tr") && !language.equals("az")
+				&& !language.equals("lt");
+	}
+
+	/**
+	 * Split an input into its words and their positions.
+	 * 
+	 * @param in
+	 *            The input.
+	 * @return The words that are not stopwords.
+	 */
+	public InputTokens tokenize(String in) {
+		ParseScratch scratch = new ParseScratch();
+		String[] words = normalize(in, scratch);
+		int[] starts = new int[words.length], ends = new int[words.length];
+		System.arraycopy(scratch._starts, 0, starts, 0, words.length);
+		System.arraycopy(scratch._ends, 0, ends, 0, words.length);
+		return new InputTokens(in, words, starts, ends);
+	}
+
+	/**
+	 * Normalize an input. The start and end of each word in the input are
+	 * left in the offset buffers of the scratch object.
+	 * 
+	 * @param in
+	 *            The input, already preprocessed.
+	 * @param scratch
+	 *            The buffers, must not be used by another thread at the same
+	 *            time.
+	 * @return The words that are not stopwords.
+	 */
+	String[] normalize(String in, ParseScratch scratch) {
+		int len = in.length();
+		boolean toLower = _toLower, byWord = toLower && !isSimpleLocale();
+		char[] chars = scratch.getCharBuffer(_foldUmlauts ? len * 2 : len);
+		int maxWordNum = len / 2 + 1;
+		String[] words = scratch.getWordBuffer(maxWordNum);
+		int[] starts = scratch.getStartBuffer(maxWordNum);
+		int[] ends = scratch.getEndBuffer(maxWordNum);
+		int wordNum = 0, pos = 0, hash = 0, start = -1;
+		boolean special = false;
+		for (int i = 0; i <= len; i++) {
+			char c = i < len ? in.charAt(i) : ' ';
+			if (isSeparator(c)) {
+				if (start < 0)
+					continue;
+				String word = null;
+				boolean stopword;
+				if (special) {
+					word = lowerCase(in, start, i);
+					stopword = _stopwords != null && _stopwords.contains(word);
+				} else {
+					stopword = _stopwords != null
+							&& _stopwords.contains(chars, pos, hash);
+				}
+				if (!stopword) {
+					words[wordNum] = word != null ? word : new String(chars,
+							0, pos);
+					starts[wordNum] = start;
+					ends[wordNum++] = i;
+				}
+				pos = 0;
+				hash = 0;
+				start = -1;
+				continue;
+			}
+			if (start < 0) {
+				start = i;
+				special = byWord;
+			}
+			if (special)
+				continue;
+			if (toLower && c >= 'A') {
+				if (c <= 'Z') {
+					c += 'a' - 'A';
+				} else if (c >= 0x80) {
+					if (!isSimpleLowerCase(c)) {
+						special = true;
+						continue;
+					}
+					c = Character.toLowerCase(c);
+				}
+			}
+			String folded = _foldUmlauts && c >= 0xc4 ? fold(c) : null;
+			if (folded == null) {
+				chars[pos++] = c;
+				hash = 31 * hash + c;
+			} else {
+				for (int k = 0; k < folded.length(); k++) {
+					char f = folded.charAt(k);
+					chars[pos++] = f;
+					hash = 31 * hash + f;
+				}
+			}
+		}
+		if (wordNum == 0)
+			return NO_WORDS;
+		String[] ret = new String[wordNum];
+		System.arraycopy(words, 0, ret, 0, wordNum);
+		return ret;
+	}
+
+	/**
+	 * Lower case a word with String.toLowerCase, which gives the same as for
+	 * the whole input as whitespace ends the context of a character.
+	 */
+	private String lowerCase(String in, int start, int end) {
+		String word = in.substring(start, end).toLowerCase();
+		return _foldUmlauts ? fold(word) : word;
+	}
+}
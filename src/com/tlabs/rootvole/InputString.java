@@ -1,5 +1,6 @@
 package com.tlabs.rootvole;
 
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Vector;
 
@@ -13,8 +14,9 @@ import com.felix.util.StringUtil;
  */
 public class InputString {
 	private String _inputString = null, _alphaNumOnly = null;
-	private Vector<MultiStringWord> _depth1res = null, _depth2res = null,
-			_depth3res = null, _depth4res = null, _lastRes = null;
+	private HashMap<Integer, Vector<MultiStringWord>> _combinations =
+			new HashMap<Integer, Vector<MultiStringWord>>();
+	private Vector<MultiStringWord> _lastRes = null;
 	private String[] _stopWords, _inputStringArray = null;
 	private int _wordNum = 0;
 
@@ -48,8 +50,9 @@ public class InputString {
 
 	public Vector<String> getReplacedWords() {
 		Vector<String> retVec = new Vector<String>();
-		for (Iterator iterator = _lastRes.iterator(); iterator.hasNext();) {
-			MultiStringWord multiStringWord = (MultiStringWord) iterator.next();
+		for (Iterator<MultiStringWord> iterator = _lastRes.iterator(); iterator
+				.hasNext();) {
+			MultiStringWord multiStringWord = iterator.next();
 			if (multiStringWord.is_replaced()) {
 				retVec.add(multiStringWord.get_replacement());
 			}
@@ -67,7 +70,7 @@ public class InputString {
 			_inputString = inputString;
 		}
 		_wordNum = _inputStringArray.length;
-
+		_combinations.clear();
 	}
 
 	/**
@@ -106,112 +109,56 @@ public class InputString {
 	 * Get all string combinations for a specific context depth for this input.
 	 * 
 	 * @param depth
-	 *            The depth, e.g. "2" for search on maximal 2-word string.
+	 *            The depth, e.g. "2" for search on maximal 2-word string. Any
+	 *            depth larger than 0 is possible.
 	 * @return The vector of sub strings, e.g. "alfa", "alfa romeo", "romeo" for
-	 *         "alfa romeo"
+	 *         "alfa romeo", null for a depth smaller than 1.
 	 */
 	public Vector<MultiStringWord> getCombinations(int depth) {
-		if (depth == 1) {
-			if (_depth1res == null) {
-				_depth1res = new Vector<MultiStringWord>();
-				// _depth1res.add(new MultiStringWord(_inputString, 0,
-				// _wordNum));
-				for (int i = 0; i < _wordNum; i++) {
-					_depth1res.add(new MultiStringWord(_inputStringArray[i], i,
-							1));
-				}
-			}
-			_lastRes = _depth1res;
-			return _depth1res;
-		} else if (depth == 2) {
-			if (_depth2res == null) {
-				_depth2res = new Vector<MultiStringWord>();
-				// _depth2res.add(new MultiStringWord(_inputString, 0,
-				// _wordNum));
-				String act = null;
-				String pre = null;
-				for (int i = 0; i < _wordNum; i++) {
-					act = _inputStringArray[i];
-					_depth2res.add(new MultiStringWord(act, i, 1));
-					if (pre != null) {
-						_depth2res.add(new MultiStringWord(pre + " " + act,
-								i - 1, 2));
-					}
-					pre = act;
-				}
-			}
-			_lastRes = _depth2res;
-			return _depth2res;
-		} else if (depth == 3) {
-			if (_depth3res == null) {
-				_depth3res = new Vector<MultiStringWord>();
-				// _depth3res.add(new MultiStringWord(_inputString, 0,
-				// _wordNum));
-				String act = null, pre = null, prepre = null;
-				for (int i = 0; i < _wordNum; i++) {
-					act = _inputStringArray[i];
-					_depth3res.add(new MultiStringWord(act, i, 1));
-					if (prepre != null) {
-						// _depth3res.add(new MultiStringWord(prepre + " " +
-						// pre,
-						// i - 2, 2));
-						_depth3res.add(new MultiStringWord(prepre + " " + pre
-								+ " " + act, i - 2, 3));
-					}
-					if (pre != null) {
-						_depth3res.add(new MultiStringWord(pre + " " + act,
-								i - 1, 2));
-						prepre = pre;
-					}
-					pre = act;
-				}
+		if (depth < 1)
+			return null;
+		Vector<MultiStringWord> res = _combinations.get(depth);
+		if (res == null) {
+			Vector<TokenSpan> spans = getSpans(depth);
+			res = new Vector<MultiStringWord>(spans.size());
+			for (TokenSpan span : spans) {
+				res.add(span.toMultiStringWord());
 			}
-			_lastRes = _depth3res;
-			return _depth3res;
-		} else if (depth == 4) {
-			if (_depth4res == null) {
-				_depth4res = new Vector<MultiStringWord>();
-				// _depth4res.add(new MultiStringWord(_inputString, 0,
-				// _wordNum));
-				String act = null, pre = null, prepre = null, preprepre = null;
-				for (int i = 0; i < _wordNum; i++) {
-					act = _inputStringArray[i];
-					_depth4res.add(new MultiStringWord(act, i, 1));
-					if (preprepre != null) {
-						// _depth4res.add(new MultiStringWord(preprepre + " "
-						// + prepre, i - 3, 4));
-						// _depth4res.add(new MultiStringWord(preprepre + " "
-						// + prepre + " " + pre, i - 3, 4));
-						_depth4res.add(new MultiStringWord(preprepre + " "
-								+ prepre + " " + pre + " " + act, i - 3, 4));
-					}
-					if (prepre != null) {
-						// _depth4res.add(new MultiStringWord(prepre + " " +
-						// pre,
-						// i - 2, 2));
-						_depth4res.add(new MultiStringWord(prepre + " " + pre
-								+ " " + act, i - 2, 3));
-						preprepre = prepre;
-					}
-					if (pre != null) {
-						_depth4res.add(new MultiStringWord(pre + " " + act,
-								i - 1, 2));
-						prepre = pre;
-					}
-					pre = act;
-				}
+			_combinations.put(depth, res);
+		}
+		_lastRes = res;
+		return res;
+	}
+
+	/**
+	 * Get all word sequences up to a specific length as views on the words of
+	 * this input, no strings are built. The order is the same as for
+	 * {@link #getCombinations(int)}: for each word the word itself, then the
+	 * longer sequences ending with it, longest first.
+	 * 
+	 * @param depth
+	 *            The maximal number of words of a sequence.
+	 * @return The spans, empty for a depth smaller than 1.
+	 */
+	public Vector<TokenSpan> getSpans(int depth) {
+		Vector<TokenSpan> spans = new Vector<TokenSpan>();
+		if (depth < 1)
+			return spans;
+		for (int i = 0; i < _wordNum; i++) {
+			spans.add(new TokenSpan(_inputStringArray, i, 1));
+			for (int len = Math.min(depth, i + 1); len >= 2; len--) {
+				spans.add(new TokenSpan(_inputStringArray, i - len + 1, len));
 			}
-			_lastRes = _depth4res;
-			return _depth4res;
 		}
-		return null;
+		return spans;
 	}
 
 	public Vector<MultiStringWord> filterMultistrings(int len, int start,
 			int end) {
 		Vector<MultiStringWord> retVec = new Vector<MultiStringWord>();
-		for (Iterator iterator = _lastRes.iterator(); iterator.hasNext();) {
-			MultiStringWord multiStringWord = (MultiStringWord) iterator.next();
+		for (Iterator<MultiStringWord> iterator = _lastRes.iterator(); iterator
+				.hasNext();) {
+			MultiStringWord multiStringWord = iterator.next();
 			if (multiStringWord.get_length() == len
 					&& multiStringWord.get_offset() <= end
 					&& multiStringWord.get_offset() >= start) {
@@ -0,0 +1,142 @@
+package com.tlabs.rootvole;
+
+/**
+ * The words of an input together with the position of each word in the
+ * input, e.g. to highlight the words an entity was found for. The original
+ * characters of a word are available as a view without copying them, see
+ * {@link #getText(int)}.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class InputTokens {
+	private final String _input;
+	private final String[] _words;
+	private final int[] _starts, _ends;
+
+	/**
+	 * Constructor, use {@link InputNormalizer#tokenize(String)}.
+	 * 
+	 * @param input
+	 *            The input.
+	 * @param words
+	 *            The normalized words.
+	 * @param starts
+	 *            The index of the first character of each word in the input.
+	 * @param ends
+	 *            The index after the last character of each word.
+	 */
+	InputTokens(String input, String[] words, int[] starts, int[] ends) {
+		_input = input;
+		_words = words;
+		_starts = starts;
+		_ends = ends;
+	}
+
+	/**
+	 * Get the input.
+	 * 
+	 * @return The input.
+	 */
+	public String getInput() {
+		return _input;
+	}
+
+	/**
+	 * Get the number of words.
+	 * 
+	 * @return The number of words.
+	 */
+	public int size() {
+		return _words.length;
+	}
+
+	/**
+	 * Get the normalized words, e.g. lower cased.
+	 * 
+	 * @return The words, not copied.
+	 */
+	public String[] getWords() {
+		return _words;
+	}
+
+	/**
+	 * Get a normalized word.
+	 * 
+	 * @param i
+	 *            The index of the word.
+	 * @return The word.
+	 */
+	public String getWord(int i) {
+		return _words[i];
+	}
+
+	/**
+	 * Get the index of the first character of a word in the input.
+	 * 
+	 * @param i
+	 *            The index of the word.
+	 * @return The character offset.
+	 */
+	public int getStart(int i) {
+		return _starts[i];
+	}
+
+	/**
+	 * Get the index after the last character of a word in the input.
+	 * 
+	 * @param i
+	 *            The index of the word.
+	 * @return The character offset.
+	 */
+	public int getEnd(int i) {
+		return _ends[i];
+	}
+
+	/**
+	 * Get the characters of a word as they are in the input.
+	 * 
+	 * @param i
+	 *            The index of the word.
+	 * @return A view of the input, e.g. "Romeo" for "romeo".
+	 */
+	public CharSequence getText(int i) {
+		return new CharView(_input, _starts[i], _ends[i]);
+	}
+
+	/**
+	 * A read only view of a part of a string.
+	 */
+	static class CharView implements CharSequence {
+		private final String _s;
+		private final int _start, _end;
+
+		CharView(String s, int start, int end) {
+			_s = s;
+			_start = start;
+			_end = end;
+		}
+
+		public int length() {
+			return _end - _start;
+		}
+
+		public char charAt(int index) {
+			if (index < 0 || index >= _end - _start)
+				throw new IndexOutOfBoundsException("index: " + index
+						+ ", length: " + length());
+			return _s.charAt(_start + index);
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			if (start < 0 || end > _end - _start || start > end)
+				throw new IndexOutOfBoundsException("start: " + start
+						+ ", end: " + end + ", length: " + length());
+			return new CharView(_s, _start + start, _start + end);
+		}
+
+		public String toString() {
+			return _s.substring(_start, _end);
+		}
+	}
+}
@@ -0,0 +1,608 @@
+package com.tlabs.rootvole;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Vector;
+
+import com.felix.util.StringUtil;
+
+/**
+ * A read only vocabulary whose lookup strings and ids live in a memory mapped
+ * file instead of the heap, for vocabularies with millions of entries. Several
+ * processes that map the same file share its pages.
+ * 
+ * The file is written from a loaded vocabulary by
+ * {@link #write(Vocabulary, String)}. It contains an open addressing table of
+ * slots (offset and {@link String#hashCode()} of the lookup string), the
+ * records of the lookup strings with the offsets of their ids and the table of
+ * distinct ids, all strings in UTF-8. Records never cross a segment of 1 GB,
+ * so files larger than 2 GB are mapped in several segments. The header keeps
+ * the segment size the file was written with.
+ * 
+ * Only {@link #getIDFromVocab(String)}, {@link #getIDsFromVocab(String)} and
+ * {@link #getVocabAsArray()} are supported, the entries themselves are not
+ * stored. A parser looks up the words of an input directly in the file
+ * instead of compiling the vocabulary into its index.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class MappedVocabulary extends Vocabulary implements SpanLookup {
+	/**
+	 * The first four bytes of a mapped vocabulary file, "RVMV".
+	 */
+	public static final int MAGIC = 0x52564D56;
+	/**
+	 * The format version written by this class.
+	 */
+	public static final int VERSION = 1;
+	private static final int FLAG_MULTIPLE_IDS = 1;
+	private static final int HEADER_SIZE = 64, SLOT_SIZE = 16, ALIGN = 8;
+	private static final int SEGMENT_BITS = 30, MIN_SEGMENT_BITS = 6;
+	private static final int PADDING = -1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private final Segments _segments;
+	private final boolean _multipleIds;
+	private final int _maxWordNum, _segmentBits;
+	private final long _slotNum, _keyNum, _idsStart, _idsEnd, _idNum;
+
+	/**
+	 * Constructor, maps a file written by {@link #write(Vocabulary, String)}.
+	 * 
+	 * @param id
+	 *            The id for this vocabulary, e.g. "labels".
+	 * @param filepath
+	 *            The file.
+	 * @throws Exception
+	 *             If the file can't be mapped or has the wrong format.
+	 */
+	public MappedVocabulary(String id, String filepath) throws Exception {
+		super(id);
+		RandomAccessFile file = new RandomAccessFile(filepath, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() < HEADER_SIZE)
+				throw new IOException("not a mapped vocabulary: " + filepath);
+			MappedByteBuffer header = channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt(0) != MAGIC)
+				throw new IOException("not a mapped vocabulary: " + filepath);
+			int version = header.getInt(4);
+			if (version != VERSION)
+				throw new IOException("unsupported mapped vocabulary version "
+						+ version + ": " + filepath);
+			_multipleIds = (header.getInt(8) & FLAG_MULTIPLE_IDS) != 0;
+			_maxWordNum = header.getInt(12);
+			_slotNum = header.getLong(16);
+			_keyNum = header.getLong(24);
+			_idsStart = header.getLong(32);
+			_idsEnd = header.getLong(40);
+			_idNum = header.getLong(48);
+			_segmentBits = header.getInt(56);
+			if (_segmentBits < MIN_SEGMENT_BITS || _segmentBits > SEGMENT_BITS)
+				throw new IOException("mapped vocabulary corrupt: " + filepath);
+			_segments = new Segments(channel, FileChannel.MapMode.READ_ONLY,
+					channel.size(), _segmentBits);
+		} finally {
+			// the mapping stays valid
+			file.close();
+		}
+		super.setMultipleIDs(_multipleIds);
+	}
+
+	/**
+	 * Write the lookup strings and ids of a vocabulary to a file that can be
+	 * mapped by {@link #MappedVocabulary(String, String)}.
+	 * 
+	 * @param vocab
+	 *            The vocabulary.
+	 * @param filepath
+	 *            The file, overwritten if it exists.
+	 * @throws Exception
+	 */
+	public static void write(Vocabulary vocab, String filepath)
+			throws Exception {
+		write(vocab, filepath, SEGMENT_BITS);
+	}
+
+	/**
+	 * Write a file with smaller segments, e.g. to test records at the end of
+	 * a segment without writing gigabytes.
+	 * 
+	 * @param segmentBits
+	 *            The segment size as a power of two, 6 to 30.
+	 */
+	static void write(Vocabulary vocab, String filepath, int segmentBits)
+			throws Exception {
+		if (segmentBits < MIN_SEGMENT_BITS || segmentBits > SEGMENT_BITS)
+			throw new IllegalArgumentException("segment bits: " + segmentBits);
+		boolean multipleIds = vocab.isMultiplIDs();
+		vocab.compact();
+		Collection<String> keys = vocab.getLookupKeys();
+		long slotNum = 16;
+		while (slotNum < keys.size() * 2L) {
+			slotNum <<= 1;
+		}
+		if (slotNum > 1L << 32)
+			throw new IOException("too many entries: " + keys.size());
+		long dataStart = HEADER_SIZE + slotNum * SLOT_SIZE;
+		RandomAccessFile file = new RandomAccessFile(filepath, "rw");
+		try {
+			file.setLength(0);
+			FileChannel channel = file.getChannel();
+			channel.position(dataStart);
+			SegmentedOutput out = new SegmentedOutput(new DataOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(channel),
+							1 << 16)), dataStart, 1L << segmentBits);
+			// the distinct ids
+			HashMap<String, Long> idOffsets = new HashMap<String, Long>();
+			for (String key : keys) {
+				for (String id : vocab.getBaseIDList(key)) {
+					writeId(out, id, idOffsets);
+				}
+			}
+			long idsEnd = out.getPosition();
+			// the lookup strings
+			long[] keyOffsets = new long[keys.size()];
+			int[] keyHashes = new int[keys.size()];
+			int k = 0, maxWordNum = 0;
+			for (String key : keys) {
+				byte[] bytes = key.getBytes(UTF8);
+				List<String> ids = vocab.getBaseIDList(key);
+				keyOffsets[k] = out.startRecord(12 + bytes.length + 8
+						* ids.size());
+				keyHashes[k++] = key.hashCode();
+				out.writeInt(key.hashCode());
+				out.writeInt(bytes.length);
+				out.write(bytes);
+				out.writeInt(ids.size());
+				for (String id : ids) {
+					out.writeLong(idOffsets.get(id));
+				}
+				String[] words = StringUtil.stringToArray(key);
+				if (words != null && words.length > maxWordNum)
+					maxWordNum = words.length;
+			}
+			out.close();
+			long size = out.getPosition();
+			Segments segments = new Segments(channel,
+					FileChannel.MapMode.READ_WRITE, size, segmentBits);
+			for (int i = 0; i < keyOffsets.length; i++) {
+				long slot = slot(keyHashes[i], slotNum);
+				while (segments.getLong(slotPos(slot)) != 0) {
+					slot = (slot + 1) & (slotNum - 1);
+				}
+				segments.putLong(slotPos(slot), keyOffsets[i]);
+				segments.putInt(slotPos(slot) + 8, keyHashes[i]);
+			}
+			segments.putInt(0, MAGIC);
+			segments.putInt(4, VERSION);
+			segments.putInt(8, multipleIds ? FLAG_MULTIPLE_IDS : 0);
+			segments.putInt(12, maxWordNum);
+			segments.putLong(16, slotNum);
+			segments.putLong(24, keys.size());
+			segments.putLong(32, dataStart);
+			segments.putLong(40, idsEnd);
+			segments.putLong(48, idOffsets.size());
+			segments.putInt(56, segmentBits);
+			segments.force();
+		} finally {
+			file.close();
+		}
+	}
+
+	private static void writeId(SegmentedOutput out, String id,
+			HashMap<String, Long> idOffsets) throws IOException {
+		if (idOffsets.containsKey(id))
+			return;
+		byte[] bytes = id.getBytes(UTF8);
+		idOffsets.put(id, out.startRecord(4 + bytes.length));
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static long slot(int hash, long slotNum) {
+		int h = hash * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & 0xffffffffL & (slotNum - 1);
+	}
+
+	private static long slotPos(long slot) {
+		return HEADER_SIZE + slot * SLOT_SIZE;
+	}
+
+	/**
+	 * Find the record of a lookup string.
+	 * 
+	 * @param key
+	 *            The string.
+	 * @param hash
+	 *            Its hash code, see {@link TokenSpan#hashCode()}.
+	 * @return The offset of the record or -1.
+	 */
+	private long find(CharSequence key, int hash) {
+		long slot = slot(hash, _slotNum);
+		long offset;
+		while ((offset = _segments.getLong(slotPos(slot))) != 0) {
+			if (_segments.getInt(slotPos(slot) + 8) == hash
+					&& keyEquals(offset + 8, _segments.getInt(offset + 4), key))
+				return offset;
+			slot = (slot + 1) & (_slotNum - 1);
+		}
+		return -1;
+	}
+
+	/**
+	 * Compare UTF-8 bytes in the file with a string without decoding them.
+	 */
+	private boolean keyEquals(long pos, int len, CharSequence key) {
+		int k = 0, keyLen = key.length();
+		long end = pos + len;
+		while (pos < end) {
+			int b = _segments.get(pos++) & 0xff;
+			int c;
+			if (b < 0x80) {
+				c = b;
+			} else if (b < 0xe0) {
+				c = ((b & 0x1f) << 6) | (_segments.get(pos++) & 0x3f);
+			} else if (b < 0xf0) {
+				c = ((b & 0x0f) << 12) | ((_segments.get(pos++) & 0x3f) << 6)
+						| (_segments.get(pos++) & 0x3f);
+			} else {
+				int cp = ((b & 0x07) << 18)
+						| ((_segments.get(pos++) & 0x3f) << 12)
+						| ((_segments.get(pos++) & 0x3f) << 6)
+						| (_segments.get(pos++) & 0x3f);
+				if (k >= keyLen
+						|| key.charAt(k++) != Character.highSurrogate(cp))
+					return false;
+				c = Character.lowSurrogate(cp);
+			}
+			if (k >= keyLen || key.charAt(k++) != c)
+				return false;
+		}
+		return k == keyLen;
+	}
+
+	private String readString(long pos) {
+		int len = _segments.getInt(pos);
+		byte[] bytes = new byte[len];
+		for (int i = 0; i < len; i++) {
+			bytes[i] = _segments.get(pos + 4 + i);
+		}
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Get the ids of a lookup string.
+	 * 
+	 * @param key
+	 *            The string, e.g. a span of input words.
+	 * @param hash
+	 *            Its hash code, the same as {@link String#hashCode()}.
+	 * @return The ids or null if the string is not in this vocabulary.
+	 */
+	public Vector<String> lookupIDs(CharSequence key, int hash) {
+		long offset = find(key, hash);
+		if (offset < 0)
+			return null;
+		long pos = offset + 8 + _segments.getInt(offset + 4);
+		int idNum = _segments.getInt(pos);
+		Vector<String> ids = new Vector<String>(idNum);
+		for (int i = 0; i < idNum; i++) {
+			ids.add(readString(_segments.getLong(pos + 4 + 8L * i)));
+		}
+		return ids;
+	}
+
+	@Override
+	public String getIDFromVocab(String s) {
+		Vector<String> ids = lookupIDs(s, s.hashCode());
+		return ids != null && !ids.isEmpty() ? ids.firstElement() : null;
+	}
+
+	@Override
+	public Vector<String> getIDsFromVocab(String s) {
+		return lookupIDs(s, s.hashCode());
+	}
+
+	@Override
+	public List<String> getIDListFromVocab(String s) {
+		return lookupIDs(s, s.hashCode());
+	}
+
+	/**
+	 * Get the ids stored for a string, the entries aren't available to search
+	 * all synonyms.
+	 */
+	@Override
+	public Vector<String> getIDsForVocabSearch(String query) {
+		Vector<String> ids = getIDsFromVocab(query);
+		return ids != null ? ids : new Vector<String>();
+	}
+
+	/**
+	 * Get all distinct ids that can be looked up, ids of entries without any
+	 * lookup string aren't stored.
+	 */
+	@Override
+	public String[] getVocabAsArray() {
+		String[] ids = new String[(int) _idNum];
+		int i = 0;
+		long pos = _idsStart;
+		while (pos < _idsEnd) {
+			int len = _segments.getInt(pos);
+			if (len == PADDING) {
+				pos = ((pos >>> _segmentBits) + 1) << _segmentBits;
+				continue;
+			}
+			ids[i++] = readString(pos);
+			pos += align(4 + len);
+		}
+		return ids;
+	}
+
+	/**
+	 * Get the number of lookup strings.
+	 * 
+	 * @return The number of strings.
+	 */
+	public long size() {
+		return _keyNum;
+	}
+
+	/**
+	 * Get the number of words of the longest lookup string.
+	 * 
+	 * @return The number of words.
+	 */
+	public int getMaxWordNum() {
+		return _maxWordNum;
+	}
+
+	/**
+	 * Lookup strings aren't compiled into a parser's index, they are looked
+	 * up in the file.
+	 */
+	@Override
+	Collection<String> getLookupKeys() {
+		return Collections.emptySet();
+	}
+
+	@Override
+	public void reload(Vector<String> elements, boolean withSynonyms) {
+		throw readOnly();
+	}
+
+	@Override
+	public void reloadFromFile(String filepath, boolean withSynonyms,
+			Charset charset) {
+		throw readOnly();
+	}
+
+	@Override
+	public void putEntry(String element) {
+		throw readOnly();
+	}
+
+	@Override
+	public void removeEntry(String id) {
+		throw readOnly();
+	}
+
+	@Override
+	Vocabulary snapshot() {
+		return this;
+	}
+
+	@Override
+	Vector<VocabEntry> getEntries() {
+		throw readOnly();
+	}
+
+	@Override
+	void clearEntries(boolean withSynonyms) {
+		throw readOnly();
+	}
+
+	@Override
+	public void setMultipleIDs(boolean hasMultipleIDs) {
+		throw readOnly();
+	}
+
+	@Override
+	public void loadVocabFromVector(Vector<String> elements,
+			boolean withSynonyms) {
+		throw readOnly();
+	}
+
+	@Override
+	public void loadVocabFromFile(String filepath, boolean withSynonyms) {
+		throw readOnly();
+	}
+
+	@Override
+	public void loadVocabFromFile(String filepath, boolean withSynonyms,
+			Charset charset) {
+		throw readOnly();
+	}
+
+	@Override
+	public void loadVocabFromVectorWithoutSynonyms(Vector<String> elements) {
+		throw readOnly();
+	}
+
+	@Override
+	public void loadVocabFromVectorWithSynonyms(Vector<String> elements,
+			boolean initialVocab) {
+		throw readOnly();
+	}
+
+	@Override
+	public void addToVocabFromVectorsWithSynonyms(
+			Collection<Vector<String>> supplements) {
+		throw readOnly();
+	}
+
+	@Override
+	public Vector<String> getSynonyms() {
+		throw readOnly();
+	}
+
+	@Override
+	public String getRandomSynonym() {
+		throw readOnly();
+	}
+
+	@Override
+	public void printToFile(String filename) {
+		throw readOnly();
+	}
+
+	@Override
+	public void printToPrintStream(PrintStream out) {
+		throw readOnly();
+	}
+
+	private UnsupportedOperationException readOnly() {
+		return new UnsupportedOperationException(
+				"mapped vocabularies are read only and don't keep entries: "
+						+ getId());
+	}
+
+	private static long align(long len) {
+		return (len + ALIGN - 1) & ~(ALIGN - 1L);
+	}
+
+	/**
+	 * Writes records sequentially, records are aligned and don't cross a
+	 * segment.
+	 */
+	private static class SegmentedOutput {
+		private final DataOutputStream _out;
+		private final long _segmentSize;
+		private long _pos;
+
+		SegmentedOutput(DataOutputStream out, long pos, long segmentSize) {
+			_out = out;
+			_pos = pos;
+			_segmentSize = segmentSize;
+		}
+
+		long getPosition() {
+			return _pos;
+		}
+
+		/**
+		 * Pad to the start of the next record.
+		 * 
+		 * @return The offset of the record.
+		 */
+		long startRecord(long len) throws IOException {
+			len = align(len);
+			if (len > _segmentSize)
+				throw new IOException("record too large: " + len);
+			long aligned = align(_pos);
+			pad(aligned - _pos);
+			long segmentEnd = (_pos | (_segmentSize - 1)) + 1;
+			if (_pos + len > segmentEnd) {
+				writeInt(PADDING);
+				pad(segmentEnd - _pos);
+			}
+			return _pos;
+		}
+
+		private void pad(long len) throws IOException {
+			for (long i = 0; i < len; i++) {
+				_out.write(0);
+			}
+			_pos += len;
+		}
+
+		void writeInt(int v) throws IOException {
+			_out.writeInt(v);
+			_pos += 4;
+		}
+
+		void writeLong(long v) throws IOException {
+			_out.writeLong(v);
+			_pos += 8;
+		}
+
+		void write(byte[] bytes) throws IOException {
+			_out.write(bytes);
+			_pos += bytes.length;
+		}
+
+		void close() throws IOException {
+			pad(align(_pos) - _pos);
+			_out.flush();
+		}
+	}
+
+	/**
+	 * A file mapped in segments, of 1 GB unless written with smaller ones.
+	 */
+	private static class Segments {
+		private final MappedByteBuffer[] _buffers;
+		private final int _bits;
+		private final long _mask;
+
+		Segments(FileChannel channel, FileChannel.MapMode mode, long size,
+				int bits) throws IOException {
+			_bits = bits;
+			_mask = (1L << bits) - 1;
+			int num = (int) ((size + _mask) >>> bits);
+			_buffers = new MappedByteBuffer[num];
+			for (int i = 0; i < num; i++) {
+				long start = (long) i << bits;
+				_buffers[i] = channel.map(mode, start,
+						Math.min(_mask + 1, size - start));
+			}
+		}
+
+		private MappedByteBuffer buffer(long pos) {
+			return _buffers[(int) (pos >>> _bits)];
+		}
+
+		private int index(long pos) {
+			return (int) (pos & _mask);
+		}
+
+		byte get(long pos) {
+			return buffer(pos).get(index(pos));
+		}
+
+		int getInt(long pos) {
+			return buffer(pos).getInt(index(pos));
+		}
+
+		long getLong(long pos) {
+			return buffer(pos).getLong(index(pos));
+		}
+
+		void putInt(long pos, int v) {
+			buffer(pos).putInt(index(pos), v);
+		}
+
+		void putLong(long pos, long v) {
+			buffer(pos).putLong(index(pos), v);
+		}
+
+		void force() {
+			for (MappedByteBuffer buffer : _buffers) {
+				buffer.force();
+			}
+		}
+	}
+}
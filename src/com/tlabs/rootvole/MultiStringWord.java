@@ -30,6 +30,21 @@ public class MultiStringWord {
 		_end = offset + length;
 	}
 
+	/**
+	 * Copy constructor.
+	 * 
+	 * @param word
+	 *            The word to copy.
+	 */
+	public MultiStringWord(MultiStringWord word) {
+		_word = word._word;
+		_replacement = word._replacement;
+		_offset = word._offset;
+		_length = word._length;
+		_end = word._end;
+		_replaced = word._replaced;
+	}
+
 	public String get_replacement() {
 		return _replacement;
 	}
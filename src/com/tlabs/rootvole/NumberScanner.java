@@ -0,0 +1,186 @@
+package com.tlabs.rootvole;
+
+/**
+ * Converts words to numbers without throwing exceptions, e.g. "3.000" to 3000
+ * or "2,5" to 2.5. Words that aren't numbers, like "euro", are very frequent
+ * next to unit words, so a failed conversion returns a sentinel value instead
+ * of a {@link NumberFormatException}.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class NumberScanner {
+	/**
+	 * Returned by {@link #scanInt(String)} if the word is not an integer.
+	 */
+	public static final long NO_INT = Long.MIN_VALUE;
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	private static final int MAX_EXACT_EXPONENT = 22;
+	private static final double[] POW10 = new double[MAX_EXACT_EXPONENT + 1];
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
+	private NumberScanner() {
+	}
+
+	/**
+	 * Convert a word to an integer. Dots are ignored as thousands separators,
+	 * a sign is allowed before the first digit, so the result is the same as
+	 * {@code Integer.parseInt(word.replace(".", ""))}.
+	 * 
+	 * @param word
+	 *            The word, e.g. "30.000" or "-5".
+	 * @return The value or {@link #NO_INT} if the word is not an integer or
+	 *         out of the int range.
+	 */
+	public static long scanInt(String word) {
+		int len = word.length(), digits = 0;
+		boolean negative = false, start = true;
+		long value = 0;
+		for (int i = 0; i < len; i++) {
+			char c = word.charAt(i);
+			if (c == '.')
+				continue;
+			if (start && (c == '-' || c == '+')) {
+				negative = c == '-';
+				start = false;
+				continue;
+			}
+			start = false;
+			int digit = Character.digit(c, 10);
+			if (digit < 0)
+				return NO_INT;
+			value = value * 10 + digit;
+			if (value > (long) Integer.MAX_VALUE + 1)
+				return NO_INT;
+			digits++;
+		}
+		if (digits == 0)
+			return NO_INT;
+		if (negative)
+			return -value;
+		if (value > Integer.MAX_VALUE)
+			return NO_INT;
+		return value;
+	}
+
+	/**
+	 * Convert a word to a double. The word is an optional sign, digits that
+	 * might be grouped by thousands separators, an optional decimal point or
+	 * comma and an optional exponent, e.g. "2.5", "2,5", "-.5", "1e3",
+	 * "3.000", "1.000,50" or "1,000.50".
+	 * 
+	 * The last separator is the decimal one if it differs from the ones
+	 * before or if it is a single comma. Otherwise the separators group
+	 * thousands, like the dots for {@link #scanInt(String)}; a single point
+	 * only does so if it could, with three digits after it and one to three
+	 * digits other than zero before it, so "3.000" is 3000 but "2.50",
+	 * "0.125" and "1234.567" are decimals. Each group after the first must
+	 * have three digits.
+	 * 
+	 * @param word
+	 *            The word.
+	 * @return The value or {@link Double#NaN} if the word is not a number.
+	 */
+	public static double scanDouble(String word) {
+		int len = word.length(), i = 0;
+		boolean negative = false;
+		if (len > 0 && (word.charAt(0) == '-' || word.charAt(0) == '+')) {
+			negative = word.charAt(0) == '-';
+			i++;
+		}
+		long mantissa = 0;
+		// the digits after the last separator and before the first one
+		int digits = 0, separators = 0, group = 0, firstGroup = 0;
+		char separator = 0, grouping = 0;
+		boolean exact = true, firstZero = false;
+		for (; i < len; i++) {
+			char c = word.charAt(i);
+			if (c >= '0' && c <= '9') {
+				digits++;
+				group++;
+				if (mantissa < MAX_EXACT_MANTISSA / 10)
+					mantissa = mantissa * 10 + (c - '0');
+				else
+					exact = false;
+			} else if (c == '.' || c == ',') {
+				if (separators == 0) {
+					firstGroup = group;
+					firstZero = mantissa == 0;
+				} else {
+					// the separator before groups thousands
+					if (group != 3 || (grouping != 0 && separator != grouping))
+						return Double.NaN;
+					grouping = separator;
+				}
+				separator = c;
+				separators++;
+				group = 0;
+			} else {
+				break;
+			}
+		}
+		if (digits == 0)
+			return Double.NaN;
+		boolean hasExponent = i < len;
+		if (hasExponent) {
+			char c = word.charAt(i);
+			if (c != 'e' && c != 'E')
+				return Double.NaN;
+			int expStart = ++i;
+			if (i < len && (word.charAt(i) == '-' || word.charAt(i) == '+'))
+				expStart = ++i;
+			for (; i < len; i++) {
+				c = word.charAt(i);
+				if (c < '0' || c > '9')
+					return Double.NaN;
+			}
+			if (expStart == len)
+				return Double.NaN;
+			// exponents are rare, let the JDK do the rounding
+			exact = false;
+		}
+		boolean decimal;
+		if (separators == 0)
+			decimal = false;
+		else if (separators > 1)
+			decimal = separator != grouping;
+		else
+			decimal = separator == ',' || group != 3 || firstGroup > 3
+					|| firstZero || hasExponent;
+		if (!decimal && separators > 0) {
+			grouping = separator;
+			if (group != 3)
+				return Double.NaN;
+		}
+		if (grouping != 0 && (firstGroup == 0 || firstGroup > 3 || firstZero))
+			return Double.NaN;
+		int exponent = decimal ? -group : 0;
+		if (!exact || exponent < -MAX_EXACT_EXPONENT) {
+			// validated above, so this can't throw
+			return Double.parseDouble(plain(word, grouping));
+		}
+		// an exact mantissa divided by an exact power of ten is rounded
+		// correctly by a single division
+		double value = mantissa / POW10[-exponent];
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Drop the thousands separators of a validated word and write its
+	 * decimal separator as a point, for {@link Double#parseDouble(String)}.
+	 */
+	private static String plain(String word, char grouping) {
+		StringBuilder plain = new StringBuilder(word.length());
+		for (int i = 0; i < word.length(); i++) {
+			char c = word.charAt(i);
+			if (c != grouping)
+				plain.append(c == ',' ? '.' : c);
+		}
+		return plain.toString();
+	}
+}
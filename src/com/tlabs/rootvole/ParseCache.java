@@ -0,0 +1,310 @@
+package com.tlabs.rootvole;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of parse results, see {@link Parser#setParseCache}.
+ * Results are cached by the input, lower cased if the parser lower cases it,
+ * and the context depth and dropped as a whole when the parser is compiled
+ * again or an attached vocabulary, the stopwords or a value description
+ * change.
+ * 
+ * The cache is split into a probation segment for results used once and a
+ * protected segment for results used again, both in least recently used
+ * order. When the cache is full a new result only replaces the least
+ * recently used one on probation if its input was asked for more often,
+ * counted in a small frequency sketch that is halved from time to time, so
+ * a burst of one-off inputs doesn't flush the frequent ones.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class ParseCache {
+	/**
+	 * Default maximum number of cached results.
+	 */
+	public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+	/**
+	 * Maximum value of a counter of the frequency sketch.
+	 */
+	private static final int MAX_FREQUENCY = 15;
+	private static final int[] SEEDS = { 0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D,
+			0x27D4EB2F };
+	private final int _maximumSize, _protectedSize;
+	private final LinkedHashMap<Key, ParseResult> _probation, _protected;
+	private final byte[] _frequencies;
+	private final int _sampleSize;
+	private int _sampleNum = 0;
+	private Object _compiled = null;
+	private int[] _changeCounts = null;
+	private int _generation = 0;
+	private long _hitCount = 0, _missCount = 0, _evictionCount = 0;
+
+	/**
+	 * Constructor with the default maximum size.
+	 */
+	public ParseCache() {
+		this(DEFAULT_MAXIMUM_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param maximumSize
+	 *            The maximum number of cached results.
+	 */
+	public ParseCache(int maximumSize) {
+		if (maximumSize < 1)
+			throw new IllegalArgumentException("maximum size: " + maximumSize);
+		_maximumSize = maximumSize;
+		_protectedSize = maximumSize * 4 / 5;
+		_probation = new LinkedHashMap<Key, ParseResult>(16, 0.75f, true);
+		_protected = new LinkedHashMap<Key, ParseResult>(16, 0.75f, true);
+		int width = 16;
+		while (width < maximumSize && width < (1 << 24)) {
+			width <<= 1;
+		}
+		_frequencies = new byte[width];
+		_sampleSize = width * 10;
+	}
+
+	/**
+	 * Normalize an input to the string it is cached by. It is only lower
+	 * cased if that keeps the position of each character, as the entities
+	 * of a result know their position in the input.
+	 * 
+	 * @param in
+	 *            The input.
+	 * @param toLower
+	 *            If the input is lower cased, only if the parser lower cases
+	 *            it before anything else looks at it.
+	 * @return The normalized input.
+	 */
+	public static String normalize(String in, boolean toLower) {
+		if (!toLower)
+			return in;
+		String lower = in.toLowerCase();
+		return lower.length() == in.length() ? lower : in;
+	}
+
+	/**
+	 * Drop all results if they were parsed by another compiled parser or
+	 * with other changes of the vocabularies.
+	 * 
+	 * @param compiled
+	 *            The compiled parser used for the next parses.
+	 * @param changeCounts
+	 *            The change counters of the vocabularies, stopwords and value
+	 *            descriptions, read before the parser was compiled.
+	 * @return The generation to pass to
+	 *         {@link #put(String, int, ParseResult, int)}.
+	 */
+	synchronized int validate(Object compiled, int[] changeCounts) {
+		if (compiled != _compiled
+				|| !Arrays.equals(changeCounts, _changeCounts)) {
+			_probation.clear();
+			_protected.clear();
+			_compiled = compiled;
+			_changeCounts = changeCounts;
+			_generation++;
+		}
+		return _generation;
+	}
+
+	/**
+	 * Get a cached result.
+	 * 
+	 * @param input
+	 *            The normalized input.
+	 * @param contextDepth
+	 *            The context depth.
+	 * @return The result, must not be changed, or null if not cached.
+	 */
+	synchronized ParseResult get(String input, int contextDepth) {
+		Key key = new Key(input, contextDepth);
+		increment(key._hash);
+		ParseResult result = _protected.get(key);
+		if (result == null) {
+			result = _probation.remove(key);
+			if (result != null) {
+				_protected.put(key, result);
+				if (_protected.size() > _protectedSize) {
+					Iterator<Map.Entry<Key, ParseResult>> it = _protected
+							.entrySet().iterator();
+					Map.Entry<Key, ParseResult> eldest = it.next();
+					it.remove();
+					_probation.put(eldest.getKey(), eldest.getValue());
+				}
+			}
+		}
+		if (result == null)
+			_missCount++;
+		else
+			_hitCount++;
+		return result;
+	}
+
+	/**
+	 * Cache a result, if it was parsed since the last
+	 * {@link #validate(Object, int[])} and it is used often enough.
+	 * 
+	 * @param input
+	 *            The normalized input.
+	 * @param contextDepth
+	 *            The context depth.
+	 * @param result
+	 *            The result, must not be changed afterwards.
+	 * @param generation
+	 *            The generation returned by validate before parsing.
+	 */
+	synchronized void put(String input, int contextDepth, ParseResult result,
+			int generation) {
+		if (generation != _generation)
+			return;
+		Key key = new Key(input, contextDepth);
+		if (_protected.containsKey(key) || _probation.containsKey(key))
+			return;
+		if (_probation.size() + _protected.size() >= _maximumSize) {
+			LinkedHashMap<Key, ParseResult> segment = _probation.isEmpty()
+					? _protected : _probation;
+			Iterator<Key> it = segment.keySet().iterator();
+			Key victim = it.next();
+			if (frequency(key._hash) <= frequency(victim._hash))
+				return;
+			it.remove();
+			_evictionCount++;
+		}
+		_probation.put(key, result);
+	}
+
+	private int index(int hash, int row) {
+		int h = hash * SEEDS[row];
+		return (h ^ (h >>> 16)) & (_frequencies.length - 1);
+	}
+
+	private void increment(int hash) {
+		for (int row = 0; row < SEEDS.length; row++) {
+			int i = index(hash, row);
+			if (_frequencies[i] < MAX_FREQUENCY)
+				_frequencies[i]++;
+		}
+		if (++_sampleNum >= _sampleSize) {
+			for (int i = 0; i < _frequencies.length; i++) {
+				_frequencies[i] >>= 1;
+			}
+			_sampleNum /= 2;
+		}
+	}
+
+	private int frequency(int hash) {
+		int min = MAX_FREQUENCY;
+		for (int row = 0; row < SEEDS.length; row++) {
+			min = Math.min(min, _frequencies[index(hash, row)]);
+		}
+		return min;
+	}
+
+	/**
+	 * Remove all results, the statistics are kept.
+	 */
+	public synchronized void clear() {
+		_probation.clear();
+		_protected.clear();
+		_generation++;
+	}
+
+	/**
+	 * Get the number of cached results.
+	 * 
+	 * @return The size.
+	 */
+	public synchronized int size() {
+		return _probation.size() + _protected.size();
+	}
+
+	/**
+	 * Get the maximum number of cached results.
+	 * 
+	 * @return The maximum size.
+	 */
+	public int getMaximumSize() {
+		return _maximumSize;
+	}
+
+	/**
+	 * Get the number of parses answered from the cache.
+	 * 
+	 * @return The hit count.
+	 */
+	public synchronized long getHitCount() {
+		return _hitCount;
+	}
+
+	/**
+	 * Get the number of parses not found in the cache.
+	 * 
+	 * @return The miss count.
+	 */
+	public synchronized long getMissCount() {
+		return _missCount;
+	}
+
+	/**
+	 * Get the number of results removed to make room for others.
+	 * 
+	 * @return The eviction count.
+	 */
+	public synchronized long getEvictionCount() {
+		return _evictionCount;
+	}
+
+	/**
+	 * Get the share of parses answered from the cache.
+	 * 
+	 * @return The hit rate, 0 if nothing was parsed yet.
+	 */
+	public synchronized double getHitRate() {
+		long requests = _hitCount + _missCount;
+		return requests == 0 ? 0 : (double) _hitCount / requests;
+	}
+
+	/**
+	 * Get a string representation of the statistics.
+	 */
+	public synchronized String toString() {
+		return "size: " + size() + "/" + _maximumSize + ", hits: "
+				+ _hitCount + ", misses: " + _missCount + ", evictions: "
+				+ _evictionCount;
+	}
+
+	/**
+	 * The key of a cached result.
+	 */
+	private static class Key {
+		private final String _input;
+		private final int _contextDepth, _hash;
+
+		Key(String input, int contextDepth) {
+			_input = input;
+			_contextDepth = contextDepth;
+			_hash = input.hashCode() * 31 + contextDepth;
+		}
+
+		@Override
+		public int hashCode() {
+			return _hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return _contextDepth == other._contextDepth
+					&& _input.equals(other._input);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package com.tlabs.rootvole;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The parses currently running, so a parse of the same input by another
+ * thread waits for the running one instead of doing the same work again,
+ * see {@link Parser#setCoalescing(boolean)}.
+ * 
+ * A parse is only joined if it uses the same compiled parser and started
+ * with the same changes of the vocabularies, so the result doesn't miss a
+ * change made before the joining parse began. Each parse has its own task
+ * that its callers wait for, a parse is removed when it is done.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+class ParseFlights {
+	private final ConcurrentHashMap<Key, FutureTask<ParseResult>> _flights =
+			new ConcurrentHashMap<Key, FutureTask<ParseResult>>();
+	private final AtomicLong _joinedCount = new AtomicLong();
+
+	/**
+	 * Parse an input or wait for a running parse of the same input.
+	 * 
+	 * @param compiled
+	 *            The compiled parser.
+	 * @param changeCounts
+	 *            The change counters read before the parser was compiled.
+	 * @param key
+	 *            The normalized input, see
+	 *            {@link ParseCache#normalize(String, boolean)}.
+	 * @param in
+	 *            The input.
+	 * @param contextDepth
+	 *            The context depth.
+	 * @return The result, shared by all callers, so it must not be changed.
+	 *         Null if the parse failed.
+	 */
+	ParseResult parse(final CompiledParser compiled, int[] changeCounts,
+			String key, final String in, final int contextDepth) {
+		Key flightKey = new Key(compiled, changeCounts, key, contextDepth);
+		FutureTask<ParseResult> task = new FutureTask<ParseResult>(
+				new Callable<ParseResult>() {
+					public ParseResult call() {
+						return compiled.parse(in, contextDepth);
+					}
+				});
+		FutureTask<ParseResult> flight = _flights.putIfAbsent(flightKey, task);
+		if (flight == null) {
+			try {
+				task.run();
+			} finally {
+				_flights.remove(flightKey, task);
+			}
+			flight = task;
+		} else {
+			_joinedCount.incrementAndGet();
+		}
+		try {
+			return flight.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			e.printStackTrace();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Get the number of parses that waited for a running parse.
+	 * 
+	 * @return The count.
+	 */
+	long getJoinedCount() {
+		return _joinedCount.get();
+	}
+
+	/**
+	 * The key of a running parse.
+	 */
+	private static class Key {
+		private final Object _compiled;
+		private final int[] _changeCounts;
+		private final String _input;
+		private final int _contextDepth, _hash;
+
+		Key(Object compiled, int[] changeCounts, String input,
+				int contextDepth) {
+			_compiled = compiled;
+			_changeCounts = changeCounts;
+			_input = input;
+			_contextDepth = contextDepth;
+			_hash = (input.hashCode() * 31 + contextDepth) * 31
+					+ Arrays.hashCode(changeCounts);
+		}
+
+		@Override
+		public int hashCode() {
+			return _hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return _compiled == other._compiled
+					&& _contextDepth == other._contextDepth
+					&& _input.equals(other._input)
+					&& Arrays.equals(_changeCounts, other._changeCounts);
+		}
+	}
+}
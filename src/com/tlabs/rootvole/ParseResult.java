@@ -1,6 +1,9 @@
 package com.tlabs.rootvole;
 
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Vector;
 
 import org.json.JSONArray;
@@ -17,11 +20,26 @@ import com.felix.util.StringUtil;
  * 
  */
 public class ParseResult {
+	/**
+	 * Orders entities by offset, longer ones first for the same offset.
+	 */
+	static final Comparator<Entity> SPAN_ORDER =
+			new Comparator<Entity>() {
+		public int compare(Entity e1, Entity e2) {
+			MultiStringWord w1 = e1.getValue(), w2 = e2.getValue();
+			if (w1.get_offset() != w2.get_offset())
+				return w1.get_offset() < w2.get_offset() ? -1 : 1;
+			if (w1.get_end() != w2.get_end())
+				return w1.get_end() > w2.get_end() ? -1 : 1;
+			return 0;
+		}
+	};
 	private Vector<Entity> _entities;
 	private Vector<Value> _values;
 	private String _input = null, _parserID = "", _parserVersion = "",
-			_rest = "", _origString = "";
+			_rest = "", _origString = "", _parsedString = null;
 	private String[] _restArray = null;
+	private int[] _restSpans = null;
 
 	/**
 	 * Constructor.
@@ -98,6 +116,35 @@ public class ParseResult {
 		}
 	}
 
+	/**
+	 * Copy a result for another input that gives the same result, e.g. one
+	 * that only differs in case. Entities and values are copied, so
+	 * the copy can be changed without changing this result.
+	 * 
+	 * @param input
+	 *            The input string of the copy, also replaces the original
+	 *            string if one was set.
+	 * @return The copy.
+	 */
+	public ParseResult copy(String input) {
+		ParseResult copy = new ParseResult(input, _parserID, _parserVersion);
+		for (Entity entity : _entities) {
+			copy._entities.add(new Entity(entity));
+		}
+		for (Value value : _values) {
+			copy._values.add(new Value(value));
+		}
+		if (StringUtil.isFilled(_origString))
+			copy._origString = input;
+		// the input of the copy unless a preprocessor changed it
+		if (_parsedString != null && !_parsedString.equals(_input))
+			copy._parsedString = _parsedString;
+		copy._rest = _rest;
+		copy._restArray = _restArray;
+		copy._restSpans = _restSpans;
+		return copy;
+	}
+
 	/**
 	 * Add an entity to the result set.
 	 * 
@@ -131,85 +178,107 @@ public class ParseResult {
 	/**
 	 * Remove results in entities that are part of larger entity results, e.g.
 	 * "alfa" and "romeo" for "alfa romeo"
+	 * 
+	 * The entities are sorted once by offset (longer first) and swept in that
+	 * order: an entity is part of a preceding one if an entity with a smaller
+	 * offset reaches at least as far, or one with the same offset reaches
+	 * further.
 	 */
 	public void checkDoubles() {
 		int cand_num = _entities.size();
 		if (cand_num == 1)
 			return;
+		Collections.sort(_entities, SPAN_ORDER);
 		Vector<Entity> newEntities = new Vector<Entity>();
-		int lastOffset = 0;
-		sortEnties();
-		for (int i = 0; i < cand_num; i++) {
-			Entity act = _entities.elementAt(i);
-			if (i == 0) {
-				// newEntities.add(act);
-				int firstOffset = act.getValue().get_offset();
-				for (int k = 0; k < firstOffset; k++) {
-					_rest += _restArray[k] + " ";
-				}
-				lastOffset = act.getValue().get_end();
-			}
-			boolean found = false;
-			for (int j = 0; j < i; j++) {
-				Entity pre = _entities.elementAt(j);
-				if (act.isSmallerPartOf(pre)) {
-					found = true;
-					break;
-				}
-			}
-			if (!found) {
-				newEntities.add(act);
-				int firstOffset = act.getValue().get_offset();
-				for (int k = lastOffset; k < firstOffset; k++) {
-					_rest += _restArray[k] + " ";
-				}
-				lastOffset = act.getValue().get_end();
+		removeDoubles(_entities, -1, newEntities);
+		_entities = newEntities;
+		setRestSpans();
+	}
+
+	/**
+	 * Sweep entities sorted by {@link #SPAN_ORDER} and keep the ones that
+	 * aren't part of a preceding one, see {@link #checkDoubles()}.
+	 * 
+	 * @param entities
+	 *            The entities, sorted.
+	 * @param maxEndBefore
+	 *            The furthest end of the entities kept before, which all
+	 *            have smaller offsets, -1 if there are none.
+	 * @param kept
+	 *            The list the entities kept are appended to.
+	 */
+	static void removeDoubles(List<Entity> entities, int maxEndBefore,
+			List<Entity> kept) {
+		int groupOffset = -1, groupEnd = -1;
+		for (Entity act : entities) {
+			int offset = act.getValue().get_offset();
+			int end = act.getValue().get_end();
+			if (offset != groupOffset) {
+				maxEndBefore = Math.max(maxEndBefore, groupEnd);
+				groupOffset = offset;
+				groupEnd = end;
 			}
+			if (maxEndBefore < end && groupEnd <= end)
+				kept.add(act);
 		}
-		for (int k = lastOffset; k < _restArray.length; k++) {
-			_rest += _restArray[k] + " ";
+	}
+
+	/**
+	 * Leave the words of the entities out of the rest, the entities must be
+	 * free of doubles and sorted like {@link #checkDoubles()} leaves them.
+	 */
+	void setRestSpans() {
+		int[] spans = new int[_entities.size() * 2];
+		int kept = 0;
+		for (Entity entity : _entities) {
+			spans[kept++] = entity.getValue().get_offset();
+			spans[kept++] = entity.getValue().get_end();
 		}
-		_entities = newEntities;
+		_restSpans = spans;
+		_rest = null;
 	}
 
-	private void sortEnties() {
-		for (int i = _entities.size(); i > 1; i--) {
-			for (int j = 0; j < i - 1; j++) {
-				Entity act = (Entity) _entities.elementAt(j);
-				Entity next = (Entity) _entities.elementAt(j + 1);
-				int offsetAct = act.getValue().get_offset();
-				int offsetNext = next.getValue().get_offset();
-				if (offsetAct > offsetNext) {
-					Collections.swap(_entities, j, j + 1);
-				} else if (offsetAct == offsetNext) {
-					int endAct = act.getValue().get_end();
-					int endNext = next.getValue().get_end();
-					if (endNext > endAct) {
-						Collections.swap(_entities, j, j + 1);
-					}
-				}
+	/**
+	 * Build the words not covered by the entities found by checkDoubles.
+	 * 
+	 * @return The words, each followed by a blank.
+	 */
+	private String buildRest() {
+		if (_restArray == null)
+			return "";
+		StringBuilder rest = new StringBuilder();
+		int lastOffset = 0;
+		for (int i = 0; i < _restSpans.length; i += 2) {
+			for (int k = lastOffset; k < _restSpans[i]; k++) {
+				rest.append(_restArray[k]).append(' ');
 			}
+			lastOffset = _restSpans[i + 1];
 		}
+		for (int k = lastOffset; k < _restArray.length; k++) {
+			rest.append(_restArray[k]).append(' ');
+		}
+		return rest.toString();
+	}
+
+	private String rest() {
+		if (_rest == null)
+			_rest = buildRest();
+		return _rest;
 	}
 
 	/**
 	 * Remove results in entities which ids are already present
 	 */
 	public void checkDoubleIDs() {
+		HashSet<String> ids = new HashSet<String>();
 		Vector<Entity> newEntities = new Vector<Entity>();
-		for (int i = _entities.size() - 1; i >= 0; i--) {
-			Entity act = _entities.elementAt(i);
-			boolean found = false;
-			for (int j = 0; j < i; j++) {
-				Entity pre = _entities.elementAt(j);
-				if (pre.get_id().compareTo(act.get_id()) == 0) {
-					found = true;
-				}
-			}
-			if (!found) {
+		for (Entity act : _entities) {
+			if (ids.add(act.get_id())) {
 				newEntities.add(act);
 			}
 		}
+		// the first entity of each id is kept, in reverse order as before
+		Collections.reverse(newEntities);
 		_entities = newEntities;
 	}
 
@@ -238,7 +307,7 @@ public class ParseResult {
 	 * @return Not interpreted words;
 	 */
 	public String getRest() {
-		return _rest.trim();
+		return rest().trim();
 	}
 
 	public String getOrigString() {
@@ -249,6 +318,21 @@ public class ParseResult {
 		this._origString = _origString;
 	}
 
+	/**
+	 * Get the text the character positions of the entities refer to, see
+	 * {@link Entity#getCharStart()}.
+	 * 
+	 * @return The input after the query preprocessor if the parser has one,
+	 *         else the input.
+	 */
+	public String getParsedString() {
+		return _parsedString != null ? _parsedString : _input;
+	}
+
+	void setParsedString(String parsedString) {
+		_parsedString = parsedString;
+	}
+
 	/**
 	 * Get a string representation of this result.
 	 */
@@ -259,7 +343,7 @@ public class ParseResult {
 			retBuf.append(" (" + _origString + ")");
 		}
 		retBuf.append(", got " + _entities.size() + " entities and "
-				+ _values.size() + " values, (rest: " + _rest + ") : ");
+				+ _values.size() + " values, (rest: " + rest() + ") : ");
 		for (Entity entity : _entities) {
 			retBuf.append(entity.toString() + " ");
 		}
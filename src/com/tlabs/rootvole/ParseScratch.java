@@ -0,0 +1,141 @@
+package com.tlabs.rootvole;
+
+import java.util.Arrays;
+
+import com.tlabs.rootvole.TokenAutomaton.MatchList;
+
+/**
+ * Buffers that are reused by a compiled parser for a sequence of parse calls.
+ * A scratch object may only be used by one thread at a time.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class ParseScratch {
+	MatchList _matches = new MatchList();
+	String[] _words = new String[16];
+	char[] _chars = new char[64];
+	int[] _starts = new int[16], _ends = new int[16];
+	long[] _separators = new long[4];
+	int[] _ids = new int[16], _units = new int[16], _owners = new int[16];
+	boolean[] _consumed = new boolean[16];
+
+	/**
+	 * Get a word buffer of at least the given size.
+	 * 
+	 * @param size
+	 *            The needed size.
+	 * @return The buffer.
+	 */
+	String[] getWordBuffer(int size) {
+		if (_words.length < size) {
+			_words = new String[Math.max(size, _words.length * 2)];
+		}
+		return _words;
+	}
+
+	/**
+	 * Get a char buffer of at least the given size.
+	 * 
+	 * @param size
+	 *            The needed size.
+	 * @return The buffer.
+	 */
+	char[] getCharBuffer(int size) {
+		if (_chars.length < size) {
+			_chars = new char[Math.max(size, _chars.length * 2)];
+		}
+		return _chars;
+	}
+
+	/**
+	 * Get a buffer for the start offsets of words of at least the given size.
+	 * 
+	 * @param size
+	 *            The needed size.
+	 * @return The buffer.
+	 */
+	int[] getStartBuffer(int size) {
+		if (_starts.length < size) {
+			_starts = new int[Math.max(size, _starts.length * 2)];
+		}
+		return _starts;
+	}
+
+	/**
+	 * Get a buffer for the end offsets of words of at least the given size.
+	 * 
+	 * @param size
+	 *            The needed size.
+	 * @return The buffer.
+	 */
+	int[] getEndBuffer(int size) {
+		if (_ends.length < size) {
+			_ends = new int[Math.max(size, _ends.length * 2)];
+		}
+		return _ends;
+	}
+
+	/**
+	 * Get a buffer for a bit set of separator positions of at least the
+	 * given size.
+	 * 
+	 * @param size
+	 *            The needed number of longs.
+	 * @return The buffer, not cleared.
+	 */
+	long[] getSeparatorBuffer(int size) {
+		if (_separators.length < size) {
+			_separators = new long[Math.max(size, _separators.length * 2)];
+		}
+		return _separators;
+	}
+
+	/**
+	 * Get a buffer for the positions of unit words of at least the given
+	 * size.
+	 * 
+	 * @param size
+	 *            The needed size.
+	 * @return The buffer.
+	 */
+	int[] getUnitBuffer(int size) {
+		if (_units.length < size) {
+			_units = new int[Math.max(size, _units.length * 2)];
+		}
+		return _units;
+	}
+
+	/**
+	 * Get a cleared buffer for the value descriptions that used each word of
+	 * at least the given size.
+	 * 
+	 * @param size
+	 *            The needed size, only this many entries are cleared.
+	 * @return The buffer.
+	 */
+	int[] getOwnerBuffer(int size) {
+		if (_owners.length < size) {
+			_owners = new int[Math.max(size, _owners.length * 2)];
+		} else {
+			Arrays.fill(_owners, 0, size, 0);
+		}
+		return _owners;
+	}
+
+	/**
+	 * Get a cleared flag buffer of at least the given size.
+	 * 
+	 * @param size
+	 *            The needed size, only this many flags are cleared.
+	 * @return The buffer.
+	 */
+	boolean[] getConsumedBuffer(int size) {
+		if (_consumed.length < size) {
+			_consumed = new boolean[Math.max(size, _consumed.length * 2)];
+		} else {
+			Arrays.fill(_consumed, 0, size, false);
+		}
+		return _consumed;
+	}
+}
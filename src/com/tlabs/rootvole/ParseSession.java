@@ -0,0 +1,351 @@
+package com.tlabs.rootvole;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Vector;
+
+/**
+ * An incremental parse of an input that grows or is revised at its end, e.g.
+ * the partial hypotheses a speech recognizer sends while the user is still
+ * speaking. Each new hypothesis gives the same result as
+ * {@link CompiledParser#parse(String, int)}.
+ * 
+ * An update only works on the end of a hypothesis: the words after the part
+ * it has in common with the one before are normalized again. The values
+ * are scanned again from the last word before them that no value can reach
+ * over, e.g. "golf" but not "300" or "euro", the values before it are kept
+ * (see {@link ValueScanner.ScanState}), unless a description finds its
+ * first value or loses its last one. The words the value scanner left
+ * after that word are run through the automaton and the span lookups, the
+ * state of the automaton after each word and the entities ending before
+ * are kept with their character offsets. Doubles are only checked again
+ * among the entities from the smallest offset of the ones dropped or found
+ * on. What stays linear in the length of the hypothesis is copying: the
+ * arrays of words, and the entities and values of the result, which the
+ * session doesn't share with its results.
+ * 
+ * A session started by {@link Parser#newSession(int)} follows the parser,
+ * when it was compiled again, e.g. after the configuration changed or a
+ * vocabulary was reloaded or compacted, the next hypothesis is parsed from
+ * its start by the new compiled parser. A session started by
+ * {@link CompiledParser#newSession(int)} stays with that one, which misses
+ * the changes after a reload or compaction, see
+ * {@link CompiledParser#isOutdated()}. Changes of the vocabularies made
+ * through {@link Vocabulary#putEntry(String)} and the like are seen, after a
+ * change the next hypothesis is looked up from its start.
+ * A session may only be used by one thread at a time.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class ParseSession {
+	/**
+	 * Orders entities by the end of their words, as they are found.
+	 */
+	private static final Comparator<Entity> END_ORDER =
+			new Comparator<Entity>() {
+		public int compare(Entity e1, Entity e2) {
+			int end1 = e1.getValue().get_end(), end2 = e2.getValue().get_end();
+			return end1 < end2 ? -1 : end1 == end2 ? 0 : 1;
+		}
+	};
+	private final Parser _parser;
+	private CompiledParser _compiled;
+	final int _contextDepth;
+	final ParseScratch _scratch = new ParseScratch();
+	// all words of the last normalized input and their positions
+	private String _text = "";
+	private String[] _words = InputNormalizer.NO_WORDS;
+	int[] _starts = new int[0], _ends = new int[0];
+	// the number of words that are the same as in the input before
+	int _same = 0;
+	// the values of the last input and the words they use
+	ValueScanner.ScanState _values = new ValueScanner.ScanState();
+	// the positions of the words left by the value scanner, their ids and
+	// automaton states
+	int[] _testStarts = new int[16], _testEnds = new int[16];
+	int[] _ids = new int[16], _states = new int[16];
+	private VocabularyDelta[] _deltas = null;
+	// the entities ordered by end and the ones left by checking doubles
+	final Vector<Entity> _matchEntities = new Vector<Entity>();
+	final Vector<Entity> _spanEntities = new Vector<Entity>();
+	private final Vector<Entity> _checked = new Vector<Entity>();
+	// the smallest offset of the entities dropped by resume
+	private int _droppedOffset = Integer.MAX_VALUE;
+	private String _input = "";
+	private ParseResult _result = null;
+
+	/**
+	 * Constructor, use {@link Parser#newSession(int)}.
+	 * 
+	 * @param parser
+	 *            The parser to follow when it is compiled again, null to stay
+	 *            with the compiled parser.
+	 * @param compiled
+	 *            The compiled parser.
+	 * @param contextDepth
+	 *            The context depth, see {@link Parser#parse(String, int)}.
+	 */
+	ParseSession(Parser parser, CompiledParser compiled, int contextDepth) {
+		_parser = parser;
+		_compiled = compiled;
+		_contextDepth = contextDepth;
+	}
+
+	/**
+	 * Parse the next hypothesis, which replaces the one before.
+	 * 
+	 * @param hypothesis
+	 *            The whole input so far, e.g. "ich will einen alfa".
+	 * @return The result for the whole input or null if parsing failed.
+	 */
+	public ParseResult update(String hypothesis) {
+		if (_parser != null) {
+			CompiledParser compiled = _parser.compile();
+			// the states and entities kept belong to the old automaton
+			if (compiled != _compiled) {
+				reset();
+				_compiled = compiled;
+			}
+		}
+		ParseResult result = _compiled.parse(this, hypothesis);
+		if (result == null) {
+			// don't continue from a state that might be half updated
+			reset();
+			return null;
+		}
+		_input = hypothesis;
+		_result = result;
+		return result;
+	}
+
+	/**
+	 * Append words to the input, separated by a blank.
+	 * 
+	 * @param words
+	 *            The new words, e.g. "romeo".
+	 * @return The result for the whole input or null if parsing failed.
+	 */
+	public ParseResult append(String words) {
+		if (_input.length() == 0)
+			return update(words);
+		return update(_input + " " + words);
+	}
+
+	/**
+	 * Get the result of the last hypothesis.
+	 * 
+	 * @return The result or null if there was none yet.
+	 */
+	public ParseResult getResult() {
+		return _result;
+	}
+
+	/**
+	 * Get the last hypothesis.
+	 * 
+	 * @return The input, empty if there was none yet.
+	 */
+	public String getInput() {
+		return _input;
+	}
+
+	/**
+	 * Forget the input, e.g. when the recognizer starts a new utterance.
+	 */
+	public void reset() {
+		_text = "";
+		_words = InputNormalizer.NO_WORDS;
+		_starts = new int[0];
+		_ends = new int[0];
+		_same = 0;
+		_values = new ValueScanner.ScanState();
+		_deltas = null;
+		_matchEntities.clear();
+		_spanEntities.clear();
+		_checked.clear();
+		_input = "";
+		_result = null;
+	}
+
+	/**
+	 * Normalize an input, only the words after the part it has in common
+	 * with the input before are normalized again. A word is kept if the
+	 * separator after it is still the same, whitespace ends the context of a
+	 * character, so its normalized form can't have changed. The number of
+	 * words that are the same as before at the same positions is left in
+	 * _same.
+	 * 
+	 * @param text
+	 *            The preprocessed input.
+	 * @param normalizer
+	 *            The normalizer of the compiled parser.
+	 * @return All words, their positions are left in _starts and _ends.
+	 */
+	String[] normalize(String text, InputNormalizer normalizer) {
+		int common = 0, max = Math.min(text.length(), _text.length());
+		while (common < max && text.charAt(common) == _text.charAt(common)) {
+			common++;
+		}
+		int kept = 0;
+		while (kept < _words.length && _ends[kept] < common) {
+			kept++;
+		}
+		int from = kept > 0 ? _ends[kept - 1] : 0;
+		String[] added = normalizer.normalize(text.substring(from), _scratch);
+		int num = kept + added.length;
+		String[] words = new String[num];
+		int[] starts = new int[num], ends = new int[num];
+		System.arraycopy(_words, 0, words, 0, kept);
+		System.arraycopy(_starts, 0, starts, 0, kept);
+		System.arraycopy(_ends, 0, ends, 0, kept);
+		System.arraycopy(added, 0, words, kept, added.length);
+		for (int i = 0; i < added.length; i++) {
+			starts[kept + i] = _scratch._starts[i] + from;
+			ends[kept + i] = _scratch._ends[i] + from;
+		}
+		int same = kept, oldNum = Math.min(num, _words.length);
+		while (same < oldNum && words[same].equals(_words[same])
+				&& starts[same] == _starts[same] && ends[same] == _ends[same]) {
+			same++;
+		}
+		_same = same;
+		_text = text;
+		_words = words;
+		_starts = starts;
+		_ends = ends;
+		return words;
+	}
+
+	/**
+	 * Drop the entities that end after the words left by the value scanner
+	 * that were kept, these are the words before the first one it scanned
+	 * again. The positions of the words left after them are set.
+	 * 
+	 * @param deltas
+	 *            The changes of the vocabularies, read for this input. If
+	 *            they are not the ones of the input before nothing is kept.
+	 * @return The number of words the matching continues after.
+	 */
+	int resume(VocabularyDelta[] deltas) {
+		ValueScanner.ScanState values = _values;
+		int testNum = values._rest.length;
+		if (_testStarts.length < testNum) {
+			int size = Math.max(testNum, _testStarts.length * 2);
+			_testStarts = Arrays.copyOf(_testStarts, size);
+			_testEnds = Arrays.copyOf(_testEnds, size);
+		}
+		int k = values._kept;
+		for (int i = values._from; i < _words.length; i++) {
+			if (values._owners[i] == 0) {
+				_testStarts[k] = _starts[i];
+				_testEnds[k++] = _ends[i];
+			}
+		}
+		// each delta is replaced by a new one when its vocabulary changes
+		int from = Arrays.equals(deltas, _deltas) ? values._kept : 0;
+		_deltas = deltas;
+		_droppedOffset = Math.min(removeEntities(_matchEntities, from),
+				removeEntities(_spanEntities, from));
+		if (_ids.length < testNum) {
+			int size = Math.max(testNum, _ids.length * 2);
+			int[] ids = new int[size], states = new int[size];
+			System.arraycopy(_ids, 0, ids, 0, from);
+			System.arraycopy(_states, 0, states, 0, from);
+			_ids = ids;
+			_states = states;
+		}
+		return from;
+	}
+
+	/**
+	 * Remove the entities that end after a word, they are ordered by end.
+	 * 
+	 * @return The smallest offset of the entities removed.
+	 */
+	private static int removeEntities(Vector<Entity> entities, int end) {
+		int offset = Integer.MAX_VALUE;
+		int num = entities.size();
+		while (num > 0 && getEnd(entities, num - 1) > end) {
+			offset = Math.min(offset, getOffset(entities, --num));
+		}
+		entities.setSize(num);
+		return offset;
+	}
+
+	/**
+	 * Remove the doubles of the entities found since resume and add the
+	 * entities left to a result. Entities with a smaller offset than all
+	 * the ones dropped and found keep what they were, as only entities
+	 * starting at or before an entity can make it a double.
+	 * 
+	 * @param result
+	 *            The result.
+	 * @param matchFrom
+	 *            The number of automaton matches kept.
+	 * @param spanFrom
+	 *            The number of span lookups kept.
+	 */
+	void addEntities(ParseResult result, int matchFrom, int spanFrom) {
+		// the span lookups find them by vocabulary and then by offset
+		Collections.sort(_spanEntities.subList(spanFrom, _spanEntities.size()),
+				END_ORDER);
+		int offset = Math.min(_droppedOffset, Math.min(
+				getMinOffset(_matchEntities, matchFrom),
+				getMinOffset(_spanEntities, spanFrom)));
+		int checked = _checked.size();
+		while (checked > 0 && getOffset(_checked, checked - 1) >= offset) {
+			checked--;
+		}
+		_checked.setSize(checked);
+		Vector<Entity> candidates = new Vector<Entity>();
+		addEntitiesFrom(_matchEntities, offset, candidates);
+		addEntitiesFrom(_spanEntities, offset, candidates);
+		Collections.sort(candidates, ParseResult.SPAN_ORDER);
+		// the ends of the entities kept grow with their offsets
+		ParseResult.removeDoubles(candidates, checked > 0 ? _checked
+				.lastElement().getValue().get_end() : -1, _checked);
+		// copies, the session keeps the entities for the next input
+		if (_matchEntities.size() + _spanEntities.size() == 1) {
+			// a single entity is left as it is, see checkDoubles
+			result.addEntity(new Entity(_checked.firstElement()));
+			return;
+		}
+		for (Entity entity : _checked) {
+			result.addEntity(new Entity(entity));
+		}
+		result.setRestSpans();
+	}
+
+	private static int getMinOffset(Vector<Entity> entities, int from) {
+		int offset = Integer.MAX_VALUE;
+		for (int i = from; i < entities.size(); i++) {
+			offset = Math.min(offset, getOffset(entities, i));
+		}
+		return offset;
+	}
+
+	private static int getOffset(Vector<Entity> entities, int i) {
+		return entities.get(i).getValue().get_offset();
+	}
+
+	private static int getEnd(Vector<Entity> entities, int i) {
+		return entities.get(i).getValue().get_end();
+	}
+
+	/**
+	 * Add the entities at or after an offset, they are ordered by end.
+	 */
+	private static void addEntitiesFrom(Vector<Entity> entities, int offset,
+			Vector<Entity> candidates) {
+		int first = entities.size();
+		while (first > 0 && getEnd(entities, first - 1) > offset) {
+			first--;
+		}
+		for (int i = first; i < entities.size(); i++) {
+			if (getOffset(entities, i) >= offset)
+				candidates.add(entities.get(i));
+		}
+	}
+}
@@ -1,14 +1,23 @@
 package com.tlabs.rootvole;
 
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
 
 import com.felix.util.Preprocessor;
-import com.felix.util.StringUtil;
-import com.tlabs.rootvole.ValueDescription.ValueResult;
+import com.tlabs.rootvole.PostingsIndex.Posting;
 
 /**
  * Central class of this library.
  * 
+ * A parser is configured with vocabularies, stopwords and value descriptions
+ * and then frozen into an immutable {@link CompiledParser} by
+ * {@link #compile()}. {@link #parse(String, int)} uses the current compiled
+ * snapshot and compiles a new one when the configuration or an attached
+ * vocabulary changed. After {@link Vocabulary#reload(Vector, boolean)} the
+ * new snapshot is compiled right away and swapped in, parses running
+ * meanwhile use the old one.
+ * 
  * @author burkhardt.felix
  * 
  */
@@ -18,7 +27,19 @@ public class Parser {
 	private Vector<ValueDescription> _valueDescriptions;
 	private String _id = "", _version = "";
 	private Preprocessor _queryPreprocessor = null;
-	private boolean _hasStopwords = false, _inputToLower = false;
+	private boolean _hasStopwords = false, _inputToLower = false,
+			_foldUmlauts = false;
+	private final boolean _vectorized;
+	private volatile CompiledParser _compiled = null;
+	private volatile int[] _compiledModCounts = null;
+	private volatile ParseCache _parseCache = null;
+	private volatile ParseFlights _flights = null;
+	private final VocabularyListener _reloadListener =
+			new VocabularyListener() {
+				public void vocabularyReloaded(Vocabulary vocabulary) {
+					recompile();
+				}
+			};
 
 	/**
 	 * Constructor with identifiable string.
@@ -27,7 +48,24 @@ public class Parser {
 	 *            The id string.
 	 */
 	public Parser(String id) {
+		this(id, false);
+	}
+
+	/**
+	 * Constructor that optionally lower cases and splits the input with the
+	 * vector API, e.g. for batches of long transcripts. This needs the
+	 * classes of src-vector and the JVM option --add-modules
+	 * jdk.incubator.vector, without them or for inputs with characters
+	 * beyond Latin-1 the scalar code is used. Both give the same words.
+	 * 
+	 * @param id
+	 *            The id string.
+	 * @param vectorized
+	 *            True to use the vector API if available.
+	 */
+	public Parser(String id, boolean vectorized) {
 		_id = id;
+		_vectorized = vectorized;
 	}
 
 	/**
@@ -41,6 +79,8 @@ public class Parser {
 			_vocabularies = new Vector<Vocabulary>();
 		}
 		_vocabularies.add(vocabulary);
+		vocabulary.addVocabularyListener(_reloadListener);
+		_compiled = null;
 	}
 
 	/**
@@ -50,8 +90,13 @@ public class Parser {
 	 * @param stopwords
 	 */
 	public void setStopwords(Vocabulary stopwords) {
+		if (_stopwords != null)
+			_stopwords.removeVocabularyListener(_reloadListener);
 		_stopwords = stopwords;
+		if (stopwords != null)
+			stopwords.addVocabularyListener(_reloadListener);
 		_hasStopwords = true;
+		_compiled = null;
 	}
 
 	/**
@@ -65,6 +110,7 @@ public class Parser {
 			_valueDescriptions = new Vector<ValueDescription>();
 		}
 		_valueDescriptions.add(valueDescription);
+		_compiled = null;
 	}
 
 	/**
@@ -84,6 +130,7 @@ public class Parser {
 	 */
 	public void setQueryPreprocessor(Preprocessor qp) {
 		_queryPreprocessor = qp;
+		_compiled = null;
 	}
 
 	/**
@@ -94,6 +141,7 @@ public class Parser {
 	 */
 	public void set_version(String _version) {
 		this._version = _version;
+		_compiled = null;
 	}
 
 	/**
@@ -103,84 +151,286 @@ public class Parser {
 	 *            The input string.
 	 * @param contextDepth
 	 *            The number of words that are considered to be an identifiable
-	 *            vocabulary item, e.g. "2",
+	 *            vocabulary item, e.g. "2", or
+	 *            {@link Constants#CONTEXT_DEPTH_AUTO} for the length of the
+	 *            longest vocabulary entry.
 	 * @return The result, might be empty if no matches were found.
 	 */
 	public ParseResult parse(String in, int contextDepth) {
-		try {
-			ParseResult parseResult = new ParseResult(in, _id, _version);
-			if (_queryPreprocessor != null) {
-				parseResult.setOrigString(in);
-				in = _queryPreprocessor.process(in);
+		ParseCache cache = _parseCache;
+		ParseFlights flights = _flights;
+		if ((cache == null && flights == null) || in == null)
+			return compile().parse(in, contextDepth);
+		// read before compiling, a change meanwhile drops the results again
+		int[] changeCounts = getModCounts(true);
+		CompiledParser compiled = compile();
+		String key = ParseCache.normalize(in,
+				_inputToLower && _queryPreprocessor == null);
+		ParseResult result = null;
+		int generation = 0;
+		if (cache != null) {
+			generation = cache.validate(compiled, changeCounts);
+			result = cache.get(key, contextDepth);
+		}
+		if (result == null) {
+			if (flights != null)
+				result = flights.parse(compiled, changeCounts, key, in,
+						contextDepth);
+			else
+				result = compiled.parse(in, contextDepth);
+			if (result == null)
+				return null;
+			if (cache != null)
+				cache.put(key, contextDepth, result, generation);
+		}
+		// callers change their results, e.g. by checkDoubleIDs
+		return result.copy(in);
+	}
+
+	/**
+	 * Start an incremental parse, e.g. of the partial hypotheses of a speech
+	 * recognizer, see {@link ParseSession}. The session uses the snapshot
+	 * compiled last, also one compiled after it was started. The parse cache
+	 * isn't used.
+	 * 
+	 * @param contextDepth
+	 *            The number of words that are considered to be an identifiable
+	 *            vocabulary item, e.g. "2", or
+	 *            {@link Constants#CONTEXT_DEPTH_AUTO}.
+	 * @return The session.
+	 */
+	public ParseSession newSession(int contextDepth) {
+		return new ParseSession(this, compile(), contextDepth);
+	}
+
+	/**
+	 * Optionally set a cache for the results of {@link #parse(String, int)}.
+	 * It is cleared when the parser is compiled again or an attached
+	 * vocabulary, the stopwords or a value description change, each parse
+	 * gets a copy of the cached result.
+	 * 
+	 * @param cache
+	 *            The cache, null to parse every input again. Must not be
+	 *            shared with another parser.
+	 */
+	public void setParseCache(ParseCache cache) {
+		_parseCache = cache;
+	}
+
+	/**
+	 * Get the result cache, e.g. for its hit and miss counts.
+	 * 
+	 * @return The cache or null if none was set.
+	 */
+	public ParseCache getParseCache() {
+		return _parseCache;
+	}
+
+	/**
+	 * Optionally let concurrent calls of {@link #parse(String, int)} with the
+	 * same input and context depth share one parse, e.g. when many users say
+	 * the same thing at once. The callers wait for the thread that started
+	 * the parse and each gets a copy of the result. Unlike the cache nothing
+	 * is kept after the parse.
+	 * 
+	 * @param coalescing
+	 *            True to share concurrent parses.
+	 */
+	public void setCoalescing(boolean coalescing) {
+		if (coalescing != (_flights != null))
+			_flights = coalescing ? new ParseFlights() : null;
+	}
+
+	/**
+	 * Get the number of parses that waited for the same parse running in
+	 * another thread, see {@link #setCoalescing(boolean)}.
+	 * 
+	 * @return The count, 0 if coalescing is off.
+	 */
+	public long getCoalescedCount() {
+		ParseFlights flights = _flights;
+		return flights == null ? 0 : flights.getJoinedCount();
+	}
+
+	/**
+	 * Parse a batch of inputs in parallel, see
+	 * {@link CompiledParser#parseAll(List, int, ForkJoinPool, int)}.
+	 * 
+	 * @param inputs
+	 *            The input strings.
+	 * @param contextDepth
+	 *            The context depth.
+	 * @param pool
+	 *            The pool that does the work.
+	 * @param chunkSize
+	 *            The number of inputs parsed by one task.
+	 * @return The results in the order of the inputs.
+	 */
+	public List<ParseResult> parseAll(List<String> inputs, int contextDepth,
+			ForkJoinPool pool, int chunkSize) {
+		return compile().parseAll(inputs, contextDepth, pool, chunkSize);
+	}
+
+	/**
+	 * Parse a batch of inputs in parallel in the common fork join pool.
+	 * 
+	 * @param inputs
+	 *            The input strings.
+	 * @param contextDepth
+	 *            The context depth.
+	 * @return The results in the order of the inputs.
+	 */
+	public List<ParseResult> parseAll(List<String> inputs, int contextDepth) {
+		return compile().parseAll(inputs, contextDepth);
+	}
+
+	/**
+	 * Look up a string in all vocabularies at once.
+	 * 
+	 * @param s
+	 *            The string, e.g. "alfa romeo".
+	 * @return The postings of all vocabularies containing the string or null.
+	 */
+	public Posting[] lookup(String s) {
+		return compile().lookup(s);
+	}
+
+	/**
+	 * Freeze the current configuration into an immutable parser that can be
+	 * used by many threads concurrently. The snapshot is reused until the
+	 * configuration or an attached vocabulary or value description changes.
+	 * 
+	 * @return The compiled parser.
+	 */
+	public CompiledParser compile() {
+		CompiledParser compiled = _compiled;
+		if (compiled != null && !isOutdated()) {
+			return compiled;
+		}
+		synchronized (this) {
+			if (_compiled == null || isOutdated()) {
+				_compiledModCounts = getModCounts(false);
+				_compiled = doCompile();
 			}
-			if (_inputToLower) {
-				if (_queryPreprocessor == null) {
-					parseResult.setOrigString(in);
+			return _compiled;
+		}
+	}
+
+	/**
+	 * Compile a new snapshot right away after an attached vocabulary was
+	 * reloaded, if one was compiled before. The mod counts are updated first,
+	 * so parses keep using the old snapshot until the new one is swapped in
+	 * instead of waiting for it.
+	 */
+	private void recompile() {
+		if (_compiled == null)
+			return;
+		synchronized (this) {
+			_compiledModCounts = getModCounts(false);
+			_compiled = doCompile();
+		}
+	}
+
+	private CompiledParser doCompile() {
+		StringSet stopwords = null;
+		if (_hasStopwords) {
+			String[] words = _stopwords.getVocabAsArray();
+			if (_foldUmlauts) {
+				// the array is shared with the vocabulary
+				String[] folded = new String[words.length];
+				for (int i = 0; i < words.length; i++) {
+					folded[i] = InputNormalizer.fold(words[i]);
 				}
-				in = in.toLowerCase();
+				words = folded;
 			}
-			String[] words = null;
-			if (_hasStopwords) {
-				words = StringUtil.removeStopwords(in,
-						_stopwords.getVocabAsArray());
-			} else {
-				words = StringUtil.stringToArray(in);
+			stopwords = new StringSet(words);
+		}
+		ValueDescription[] valueDescriptions = new ValueDescription[0];
+		if (_valueDescriptions != null) {
+			valueDescriptions = new ValueDescription[_valueDescriptions.size()];
+			for (int i = 0; i < valueDescriptions.length; i++) {
+				valueDescriptions[i] = new ValueDescription(
+						_valueDescriptions.elementAt(i));
 			}
-			ValueResult valueResult = null;
-			String[] testWords = words;
-			if (_valueDescriptions != null) {
-				for (ValueDescription valueDescriptor : _valueDescriptions) {
-					valueResult = valueDescriptor.searchValue(testWords);
-					if (valueResult != null) {
-						parseResult.addValue(valueResult.get_value());
-						testWords = valueResult.get_restString();
-						if (testWords.length == 0)
-							break;
-					}
-				}
+		}
+		// one snapshot per vocabulary, so a reload meanwhile can't mix the
+		// index with the changes of another version
+		Vector<Vocabulary> vocabularies = new Vector<Vocabulary>();
+		if (_vocabularies != null) {
+			for (Vocabulary vocab : _vocabularies) {
+				vocabularies.add(vocab.snapshot());
 			}
-			parseResult.setRestArray(testWords);
-			InputString inputString = new InputString(testWords, null);
-			Vector<MultiStringWord> targetWords = inputString
-					.getCombinations(contextDepth);
-			if (testWords.length > 0 && _vocabularies != null) {
-				for (Vocabulary vocab : _vocabularies) {
-					for (MultiStringWord target : targetWords) {
-						if (vocab.isMultiplIDs()) {
-							Vector<String> ids = vocab.getIDsFromVocab(target
-									.get_word());
-							if (ids != null) {
-								// id = ids.firstElement();
-								for (String id : ids) {
-									addEntityToParseResult(parseResult, vocab,
-											target, id);
-								}
-							}
-						} else {
-							String id = vocab.getIDFromVocab(target.get_word());
-							if (id != null) {
-								addEntityToParseResult(parseResult, vocab,
-										target, id);
-							}
-
-						}
-					}
-				}
+		}
+		return new CompiledParser(_id, _version, _queryPreprocessor,
+				_inputToLower, _foldUmlauts, _vectorized, stopwords,
+				valueDescriptions, PostingsIndex.compile(vocabularies,
+						_foldUmlauts),
+				vocabularies.toArray(new Vocabulary[vocabularies.size()]));
+	}
+
+	/**
+	 * Test whether the compiled snapshot misses changes of a vocabulary, the
+	 * stopwords or a value description.
+	 * 
+	 * @return True if the snapshot needs to be compiled again.
+	 */
+	private boolean isOutdated() {
+		int[] modCounts = _compiledModCounts;
+		if (modCounts == null || modCounts.length != getModCountNum())
+			return true;
+		int i = 0;
+		if (_hasStopwords && _stopwords.getChangeCount() != modCounts[i++])
+			return true;
+		if (_vocabularies != null) {
+			for (Vocabulary vocab : _vocabularies) {
+				if (vocab.getModCount() != modCounts[i++])
+					return true;
 			}
-			parseResult.checkDoubles();
-			return parseResult;
-		} catch (Exception e) {
-			e.printStackTrace();
 		}
-		return null;
+		if (_valueDescriptions != null) {
+			for (ValueDescription vd : _valueDescriptions) {
+				if (vd.getModCount() != modCounts[i++])
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private int getModCountNum() {
+		int num = _hasStopwords ? 1 : 0;
+		if (_vocabularies != null)
+			num += _vocabularies.size();
+		if (_valueDescriptions != null)
+			num += _valueDescriptions.size();
+		return num;
 	}
 
-	private void addEntityToParseResult(ParseResult parseResult,
-			Vocabulary vocab, MultiStringWord target, String id) {
-		Entity entity = new Entity(vocab.getId());
-		entity.setId(id);
-		entity.setValue(target);
-		parseResult.addEntity(entity);
+	/**
+	 * Get the mod counts of the stopwords, vocabularies and value
+	 * descriptions.
+	 * 
+	 * @param withDeltas
+	 *            If the changes in the deltas of the vocabularies are counted
+	 *            as well, they don't need a new compiled parser.
+	 * @return The counts.
+	 */
+	private int[] getModCounts(boolean withDeltas) {
+		int[] modCounts = new int[getModCountNum()];
+		int i = 0;
+		if (_hasStopwords)
+			modCounts[i++] = _stopwords.getChangeCount();
+		if (_vocabularies != null) {
+			for (Vocabulary vocab : _vocabularies) {
+				modCounts[i++] = withDeltas ? vocab.getChangeCount()
+						: vocab.getModCount();
+			}
+		}
+		if (_valueDescriptions != null) {
+			for (ValueDescription vd : _valueDescriptions) {
+				modCounts[i++] = vd.getModCount();
+			}
+		}
+		return modCounts;
 	}
 
 	/**
@@ -198,12 +448,50 @@ public class Parser {
 		return null;
 	}
 
+	/**
+	 * Get all vocabularies.
+	 * 
+	 * @return The vocabularies, might be null if none were added.
+	 */
+	Vector<Vocabulary> getVocabularies() {
+		return _vocabularies;
+	}
+
+	/**
+	 * Get the stopword vocabulary.
+	 * 
+	 * @return The stopwords or null.
+	 */
+	Vocabulary getStopwords() {
+		return _hasStopwords ? _stopwords : null;
+	}
+
 	public boolean isInputToLower() {
 		return _inputToLower;
 	}
 
 	public void setInputToLower(boolean _inputToLower) {
 		this._inputToLower = _inputToLower;
+		_compiled = null;
+	}
+
+	public boolean isFoldUmlauts() {
+		return _foldUmlauts;
+	}
+
+	/**
+	 * Optionally replace umlauts and sharp s by their ASCII spelling in the
+	 * input and the compiled vocabulary entries and stopwords, so "k&auml;se"
+	 * and "kaese" are the same word. Mapped vocabularies and changes not yet
+	 * compacted are looked up with their entries as they are, so they should
+	 * be folded already. Value descriptions see the folded words.
+	 * 
+	 * @param foldUmlauts
+	 *            True to fold umlauts.
+	 */
+	public void setFoldUmlauts(boolean foldUmlauts) {
+		_foldUmlauts = foldUmlauts;
+		_compiled = null;
 	}
 
 }
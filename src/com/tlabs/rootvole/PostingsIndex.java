@@ -0,0 +1,347 @@
+package com.tlabs.rootvole;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * A merged index over all vocabularies of a parser. One lookup of a string
+ * returns the ids of all vocabularies that contain it, e.g. "alfa romeo" and
+ * "romeo" for "romeo" in vocabularies "brands" and "colors".
+ * 
+ * The strings are kept in an open addressing table that uses
+ * {@link String#hashCode()}, so a sequence of words can be looked up by
+ * combining the hash codes of the single words (see
+ * {@link TokenSpan#hashCode()}) without joining them to a new string.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class PostingsIndex {
+	private String[] _keys;
+	private Posting[][] _postings;
+	private int[] _hashes;
+	private int _size = 0, _vocabNum = 0;
+
+	/**
+	 * Constructor, creates an empty index.
+	 */
+	public PostingsIndex() {
+		_keys = new String[64];
+		_postings = new Posting[64][];
+		_hashes = new int[64];
+	}
+
+	/**
+	 * Compile an index for a set of vocabularies.
+	 * 
+	 * @param vocabularies
+	 *            The vocabularies, might be null.
+	 * @return The index.
+	 */
+	public static PostingsIndex compile(Vector<Vocabulary> vocabularies) {
+		return compile(vocabularies, false);
+	}
+
+	/**
+	 * Compile an index for a set of vocabularies, optionally with the umlauts
+	 * of the lookup strings folded, see {@link InputNormalizer#fold(String)}.
+	 * 
+	 * @param vocabularies
+	 *            The vocabularies, might be null.
+	 * @param foldUmlauts
+	 *            If the lookup strings are folded.
+	 * @return The index.
+	 */
+	public static PostingsIndex compile(Vector<Vocabulary> vocabularies,
+			boolean foldUmlauts) {
+		PostingsIndex index = new PostingsIndex();
+		if (vocabularies != null) {
+			for (Vocabulary vocab : vocabularies) {
+				index.addVocabulary(vocab, foldUmlauts);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Add all lookup strings of a vocabulary. Postings of vocabularies added
+	 * earlier come first.
+	 * 
+	 * @param vocab
+	 *            The vocabulary.
+	 */
+	public void addVocabulary(Vocabulary vocab) {
+		addVocabulary(vocab, false);
+	}
+
+	/**
+	 * Add all lookup strings of a vocabulary, optionally folded. An id that
+	 * two strings of the vocabulary fold to is only added once, e.g. for
+	 * "k&auml;se" and "kaese". The postings of a string are added at once
+	 * and all strings of an id share one posting.
+	 * 
+	 * @param vocab
+	 *            The vocabulary.
+	 * @param foldUmlauts
+	 *            If the lookup strings are folded.
+	 */
+	public void addVocabulary(Vocabulary vocab, boolean foldUmlauts) {
+		// not affected by a concurrent reload
+		vocab = vocab.snapshot();
+		int vocabIndex = _vocabNum++;
+		String vocabId = vocab.getId();
+		HashMap<String, Posting> shared = new HashMap<String, Posting>();
+		// the base entries, changes since the last compaction are looked up
+		// by the compiled parser
+		for (String key : vocab.getLookupKeys()) {
+			List<String> ids = vocab.getBaseIDList(key);
+			if (ids == null || ids.isEmpty())
+				continue;
+			Posting[] postings = new Posting[ids.size()];
+			for (int i = 0; i < postings.length; i++) {
+				String id = ids.get(i);
+				Posting posting = shared.get(id);
+				if (posting == null) {
+					posting = new Posting(vocabIndex, vocabId, id);
+					shared.put(id, posting);
+				}
+				postings[i] = posting;
+			}
+			if (foldUmlauts)
+				addPostings(InputNormalizer.fold(key), postings, true);
+			else
+				addPostings(key, postings, false);
+		}
+	}
+
+	/**
+	 * Add the postings of one vocabulary for a string, after those of the
+	 * vocabularies added before.
+	 * 
+	 * @param key
+	 *            The string.
+	 * @param postings
+	 *            The postings, all of the same vocabulary.
+	 * @param distinct
+	 *            If postings the string already has are skipped. Postings of
+	 *            the same id must be the same object.
+	 */
+	void addPostings(String key, Posting[] postings, boolean distinct) {
+		int hash = key.hashCode();
+		int slot = slot(hash);
+		while (_keys[slot] != null) {
+			if (_hashes[slot] == hash && _keys[slot].equals(key)) {
+				_postings[slot] = concat(_postings[slot], postings, distinct);
+				return;
+			}
+			slot = (slot + 1) & (_keys.length - 1);
+		}
+		_keys[slot] = key;
+		_hashes[slot] = hash;
+		_postings[slot] = distinct && postings.length > 1 ? concat(
+				new Posting[0], postings, true) : postings;
+		if (++_size * 2 > _keys.length) {
+			grow();
+		}
+	}
+
+	private static Posting[] concat(Posting[] old, Posting[] postings,
+			boolean distinct) {
+		HashSet<Posting> seen = null;
+		if (distinct) {
+			// only postings of the same vocabulary can be the same, they
+			// are at the end
+			seen = new HashSet<Posting>();
+			int vocabIndex = postings[0].getVocabIndex();
+			for (int i = old.length - 1; i >= 0
+					&& old[i].getVocabIndex() == vocabIndex; i--) {
+				seen.add(old[i]);
+			}
+		}
+		Posting[] ret = new Posting[old.length + postings.length];
+		System.arraycopy(old, 0, ret, 0, old.length);
+		int len = old.length;
+		for (Posting posting : postings) {
+			if (seen == null || seen.add(posting))
+				ret[len++] = posting;
+		}
+		if (len < ret.length) {
+			Posting[] shorter = new Posting[len];
+			System.arraycopy(ret, 0, shorter, 0, len);
+			ret = shorter;
+		}
+		return ret;
+	}
+
+	private void grow() {
+		String[] oldKeys = _keys;
+		Posting[][] oldPostings = _postings;
+		int[] oldHashes = _hashes;
+		int newLen = oldKeys.length * 2;
+		_keys = new String[newLen];
+		_postings = new Posting[newLen][];
+		_hashes = new int[newLen];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				int slot = slot(oldHashes[i]);
+				while (_keys[slot] != null) {
+					slot = (slot + 1) & (newLen - 1);
+				}
+				_keys[slot] = oldKeys[i];
+				_hashes[slot] = oldHashes[i];
+				_postings[slot] = oldPostings[i];
+			}
+		}
+	}
+
+	private int slot(int hash) {
+		return (hash ^ (hash >>> 16)) & (_keys.length - 1);
+	}
+
+	/**
+	 * Get all postings for a string.
+	 * 
+	 * @param s
+	 *            The string, e.g. "alfa romeo".
+	 * @return The postings or null if no vocabulary contains the string.
+	 */
+	public Posting[] lookup(String s) {
+		int hash = s.hashCode();
+		int slot = slot(hash);
+		while (_keys[slot] != null) {
+			if (_hashes[slot] == hash && _keys[slot].equals(s))
+				return _postings[slot];
+			slot = (slot + 1) & (_keys.length - 1);
+		}
+		return null;
+	}
+
+	/**
+	 * Get all postings for a sequence of words without joining them.
+	 * 
+	 * @param span
+	 *            The words, e.g. "alfa", "romeo".
+	 * @return The postings or null if no vocabulary contains the words joined
+	 *         by blanks.
+	 */
+	public Posting[] lookup(TokenSpan span) {
+		return lookup(span, span.hashCode());
+	}
+
+	/**
+	 * Get all postings for a sequence of words whose hash code was computed
+	 * incrementally by the caller, e.g. with
+	 * {@link TokenSpan#extendHash(int, String)}.
+	 * 
+	 * @param span
+	 *            The words.
+	 * @param hash
+	 *            The hash code of the words joined by blanks.
+	 * @return The postings or null if no vocabulary contains the words.
+	 */
+	public Posting[] lookup(CharSequence span, int hash) {
+		int slot = slot(hash);
+		while (_keys[slot] != null) {
+			if (_hashes[slot] == hash && contentEquals(span, _keys[slot]))
+				return _postings[slot];
+			slot = (slot + 1) & (_keys.length - 1);
+		}
+		return null;
+	}
+
+	/**
+	 * Get all postings for words of a token array, without creating a string.
+	 * 
+	 * @param tokens
+	 *            The words.
+	 * @param offset
+	 *            The index of the first word.
+	 * @param length
+	 *            The number of words.
+	 * @return The postings or null if no vocabulary contains the words.
+	 */
+	public Posting[] lookup(String[] tokens, int offset, int length) {
+		return lookup(new TokenSpan(tokens, offset, length));
+	}
+
+	static boolean contentEquals(CharSequence span, String key) {
+		if (span instanceof TokenSpan)
+			return ((TokenSpan) span).contentEquals(key);
+		return key.contentEquals(span);
+	}
+
+	/**
+	 * Get all strings of the index.
+	 * 
+	 * @return The strings.
+	 */
+	public Vector<String> getKeys() {
+		Vector<String> keys = new Vector<String>(_size);
+		for (String key : _keys) {
+			if (key != null)
+				keys.add(key);
+		}
+		return keys;
+	}
+
+	/**
+	 * Get the number of strings in this index.
+	 * 
+	 * @return The number of strings.
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * Get the number of vocabularies in this index.
+	 * 
+	 * @return The number of vocabularies.
+	 */
+	public int getVocabNum() {
+		return _vocabNum;
+	}
+
+	/**
+	 * An id delivered by one vocabulary.
+	 */
+	public static class Posting {
+		private int _vocabIndex;
+		private String _vocabId, _id;
+
+		public Posting(int vocabIndex, String vocabId, String id) {
+			_vocabIndex = vocabIndex;
+			_vocabId = vocabId;
+			_id = id;
+		}
+
+		/**
+		 * Get the position of the vocabulary in the parser.
+		 * 
+		 * @return The index.
+		 */
+		public int getVocabIndex() {
+			return _vocabIndex;
+		}
+
+		/**
+		 * Get the vocabulary id, e.g. "brands".
+		 * 
+		 * @return The vocabulary id.
+		 */
+		public String getVocabId() {
+			return _vocabId;
+		}
+
+		/**
+		 * Get the entry id, e.g. "vw" for "volkswagen".
+		 * 
+		 * @return The entry id.
+		 */
+		public String getId() {
+			return _id;
+		}
+	}
+}
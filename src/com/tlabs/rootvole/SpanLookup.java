@@ -0,0 +1,30 @@
+package com.tlabs.rootvole;
+
+import java.util.List;
+
+/**
+ * Lookup strings a compiled parser doesn't have in its index but looks up
+ * for every span of an input, e.g. a memory mapped vocabulary.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+interface SpanLookup {
+	/**
+	 * Get the ids of a lookup string.
+	 * 
+	 * @param span
+	 *            The string, e.g. a span of input words.
+	 * @param hash
+	 *            Its hash code, the same as {@link String#hashCode()}.
+	 * @return The ids or null if the string is unknown.
+	 */
+	List<String> lookupIDs(CharSequence span, int hash);
+
+	/**
+	 * Get the number of words of the longest lookup string.
+	 * 
+	 * @return The number of words.
+	 */
+	int getMaxWordNum();
+}
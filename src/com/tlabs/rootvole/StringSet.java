@@ -0,0 +1,125 @@
+package com.tlabs.rootvole;
+
+/**
+ * An immutable set of strings in an open addressing table, e.g. all spelling
+ * variants of a unit word. Testing a word costs one hash lookup instead of a
+ * scan over all variants.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class StringSet {
+	private final String[] _slots;
+	private final int _size;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param words
+	 *            The words, duplicates and nulls are ignored.
+	 */
+	public StringSet(String[] words) {
+		int len = 4;
+		while (len < words.length * 2) {
+			len <<= 1;
+		}
+		String[] slots = new String[len];
+		int size = 0;
+		for (String word : words) {
+			if (word == null)
+				continue;
+			int slot = slot(word.hashCode(), len);
+			while (slots[slot] != null && !slots[slot].equals(word)) {
+				slot = (slot + 1) & (len - 1);
+			}
+			if (slots[slot] == null) {
+				slots[slot] = word;
+				size++;
+			}
+		}
+		_slots = slots;
+		_size = size;
+	}
+
+	private static int slot(int hash, int len) {
+		return (hash ^ (hash >>> 16)) & (len - 1);
+	}
+
+	/**
+	 * Test if a word is in the set.
+	 * 
+	 * @param word
+	 *            The word, might be null.
+	 * @return True if contained.
+	 */
+	public boolean contains(String word) {
+		if (word == null)
+			return false;
+		int slot = slot(word.hashCode(), _slots.length);
+		while (_slots[slot] != null) {
+			if (_slots[slot].equals(word))
+				return true;
+			slot = (slot + 1) & (_slots.length - 1);
+		}
+		return false;
+	}
+
+	/**
+	 * Test if a word given as characters is in the set, without creating a
+	 * string for it.
+	 * 
+	 * @param chars
+	 *            The buffer holding the word at its start.
+	 * @param len
+	 *            The length of the word.
+	 * @param hash
+	 *            The hash code of the word, as by {@link String#hashCode()}.
+	 * @return True if contained.
+	 */
+	public boolean contains(char[] chars, int len, int hash) {
+		return contains(chars, 0, len, hash);
+	}
+
+	/**
+	 * Test if a word given as a part of a char buffer is in the set.
+	 * 
+	 * @param chars
+	 *            The buffer.
+	 * @param start
+	 *            The index of the first character of the word.
+	 * @param len
+	 *            The length of the word.
+	 * @param hash
+	 *            The hash code of the word, as by {@link String#hashCode()}.
+	 * @return True if contained.
+	 */
+	public boolean contains(char[] chars, int start, int len, int hash) {
+		int slot = slot(hash, _slots.length);
+		while (_slots[slot] != null) {
+			if (equals(_slots[slot], chars, start, len))
+				return true;
+			slot = (slot + 1) & (_slots.length - 1);
+		}
+		return false;
+	}
+
+	private static boolean equals(String word, char[] chars, int start,
+			int len) {
+		if (word.length() != len)
+			return false;
+		for (int i = 0; i < len; i++) {
+			if (word.charAt(i) != chars[start + i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Get the number of words.
+	 * 
+	 * @return The number of different words.
+	 */
+	public int size() {
+		return _size;
+	}
+}
@@ -0,0 +1,478 @@
+package com.tlabs.rootvole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Vector;
+
+import com.felix.util.StringUtil;
+import com.tlabs.rootvole.PostingsIndex.Posting;
+
+/**
+ * An Aho-Corasick automaton over token sequences. It is compiled from the
+ * strings of a postings index and finds all entries of all vocabularies in
+ * one pass over the words of an input, e.g. "alfa romeo", "alfa" and "romeo"
+ * for "alfa romeo black".
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class TokenAutomaton {
+	private static final int ROOT = 0, NONE = -1;
+	private static final long EMPTY = -1L;
+	private TokenDictionary _dictionary;
+	private long[] _transKeys;
+	private int[] _transStates;
+	private int _transNum = 0;
+	private ArrayList<Posting[]> _outputs;
+	private ArrayList<String> _keys;
+	private int[] _fail, _outputLinks, _depths;
+	private int _stateNum = 0, _maxDepth = 0;
+	private boolean _compiled = false;
+
+	/**
+	 * Constructor, creates an empty automaton.
+	 */
+	public TokenAutomaton() {
+		_dictionary = new TokenDictionary();
+		_transKeys = new long[64];
+		Arrays.fill(_transKeys, EMPTY);
+		_transStates = new int[64];
+		_outputs = new ArrayList<Posting[]>();
+		_keys = new ArrayList<String>();
+		_depths = new int[16];
+		newState(0);
+	}
+
+	/**
+	 * Compile an automaton for all strings of a postings index.
+	 * 
+	 * @param index
+	 *            The index.
+	 * @return The compiled automaton.
+	 */
+	public static TokenAutomaton compile(PostingsIndex index) {
+		TokenAutomaton automaton = new TokenAutomaton();
+		for (String key : index.getKeys()) {
+			automaton.addEntry(key, index.lookup(key));
+		}
+		automaton.compile();
+		return automaton;
+	}
+
+	/**
+	 * Add an entry, must be called before compiling.
+	 * 
+	 * @param key
+	 *            The entry string, e.g. "alfa romeo".
+	 * @param postings
+	 *            The postings for this entry.
+	 */
+	public void addEntry(String key, Posting[] postings) {
+		String[] tokens = StringUtil.stringToArray(key);
+		if (tokens == null || tokens.length == 0)
+			return;
+		// entries that can't be produced by joining input words with blanks
+		// would never be found by the n-gram search either
+		if (StringUtil.arrayToString(tokens).compareTo(key) != 0)
+			return;
+		int state = ROOT;
+		for (String token : tokens) {
+			int id = _dictionary.add(token);
+			int next = step(state, id);
+			if (next == NONE) {
+				next = newState(_depths[state] + 1);
+				putTransition(state, id, next);
+			}
+			state = next;
+		}
+		_outputs.set(state, postings);
+		_keys.set(state, key);
+		if (tokens.length > _maxDepth)
+			_maxDepth = tokens.length;
+	}
+
+	private int newState(int depth) {
+		_outputs.add(null);
+		_keys.add(null);
+		if (_stateNum == _depths.length)
+			_depths = Arrays.copyOf(_depths, _stateNum * 2);
+		_depths[_stateNum] = depth;
+		return _stateNum++;
+	}
+
+	private void putTransition(int state, int token, int next) {
+		long key = ((long) state << 32) | token;
+		int slot = slot(key, _transKeys.length);
+		while (_transKeys[slot] != EMPTY) {
+			slot = (slot + 1) & (_transKeys.length - 1);
+		}
+		_transKeys[slot] = key;
+		_transStates[slot] = next;
+		if (++_transNum * 2 > _transKeys.length) {
+			long[] oldKeys = _transKeys;
+			int[] oldStates = _transStates;
+			_transKeys = new long[oldKeys.length * 2];
+			Arrays.fill(_transKeys, EMPTY);
+			_transStates = new int[oldKeys.length * 2];
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != EMPTY) {
+					int s = slot(oldKeys[i], _transKeys.length);
+					while (_transKeys[s] != EMPTY) {
+						s = (s + 1) & (_transKeys.length - 1);
+					}
+					_transKeys[s] = oldKeys[i];
+					_transStates[s] = oldStates[i];
+				}
+			}
+		}
+	}
+
+	private static int slot(long key, int tableLen) {
+		int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (tableLen - 1);
+	}
+
+	/**
+	 * Follow the transition for a word.
+	 * 
+	 * @param state
+	 *            The current state.
+	 * @param token
+	 *            The id of the word.
+	 * @return The next state or NONE.
+	 */
+	private int step(int state, int token) {
+		if (token == TokenDictionary.UNKNOWN)
+			return NONE;
+		long key = ((long) state << 32) | token;
+		int slot = slot(key, _transKeys.length);
+		while (_transKeys[slot] != EMPTY) {
+			if (_transKeys[slot] == key)
+				return _transStates[slot];
+			slot = (slot + 1) & (_transKeys.length - 1);
+		}
+		return NONE;
+	}
+
+	/**
+	 * Compute failure and output links, the automaton can't be extended
+	 * afterwards.
+	 */
+	public void compile() {
+		// children of each state in a compact layout for the breadth first
+		// traversal
+		int[] childStart = new int[_stateNum + 1];
+		for (long key : _transKeys) {
+			if (key != EMPTY)
+				childStart[(int) (key >>> 32) + 1]++;
+		}
+		for (int i = 0; i < _stateNum; i++) {
+			childStart[i + 1] += childStart[i];
+		}
+		int[] childTokens = new int[_transNum];
+		int[] childStates = new int[_transNum];
+		int[] fill = Arrays.copyOf(childStart, _stateNum);
+		for (int i = 0; i < _transKeys.length; i++) {
+			long key = _transKeys[i];
+			if (key != EMPTY) {
+				int pos = fill[(int) (key >>> 32)]++;
+				childTokens[pos] = (int) key;
+				childStates[pos] = _transStates[i];
+			}
+		}
+		_fail = new int[_stateNum];
+		_outputLinks = new int[_stateNum];
+		int[] queue = new int[_stateNum];
+		int head = 0, tail = 0;
+		queue[tail++] = ROOT;
+		while (head < tail) {
+			int state = queue[head++];
+			for (int c = childStart[state]; c < childStart[state + 1]; c++) {
+				int token = childTokens[c], child = childStates[c];
+				int fail = ROOT;
+				if (state != ROOT) {
+					int f = _fail[state];
+					int next = step(f, token);
+					while (next == NONE && f != ROOT) {
+						f = _fail[f];
+						next = step(f, token);
+					}
+					if (next != NONE)
+						fail = next;
+				}
+				_fail[child] = fail;
+				_outputLinks[child] = _outputs.get(fail) != null ? fail
+						: _outputLinks[fail];
+				queue[tail++] = child;
+			}
+		}
+		_compiled = true;
+	}
+
+	/**
+	 * Find all entries in a sequence of words.
+	 * 
+	 * @param words
+	 *            The words, e.g. "alfa", "romeo", "black".
+	 * @param maxLength
+	 *            The maximal number of words of a match (the context depth).
+	 * @return The matches, ordered by end position, longer ones first.
+	 */
+	public Vector<Match> match(String[] words, int maxLength) {
+		MatchList list = new MatchList();
+		match(words, maxLength, list);
+		Vector<Match> matches = new Vector<Match>(list.size());
+		for (int i = 0; i < list.size(); i++) {
+			matches.add(new Match(list._states[i], list._offsets[i],
+					list._lengths[i]));
+		}
+		return matches;
+	}
+
+	/**
+	 * Find all entries in a sequence of words without allocating objects per
+	 * match.
+	 * 
+	 * @param words
+	 *            The words, e.g. "alfa", "romeo", "black".
+	 * @param maxLength
+	 *            The maximal number of words of a match (the context depth).
+	 * @param matches
+	 *            The list to fill, cleared first. Ordered by end position,
+	 *            longer matches first.
+	 */
+	public void match(String[] words, int maxLength, MatchList matches) {
+		int[] ids = _dictionary.encode(words, null);
+		match(ids, words.length, maxLength, matches);
+	}
+
+	/**
+	 * Find all entries in a sequence of word ids, see
+	 * {@link TokenDictionary#encode(String[], int[])}. Unknown words end all
+	 * partial matches at once.
+	 * 
+	 * @param ids
+	 *            The word ids.
+	 * @param length
+	 *            The number of ids to use.
+	 * @param maxLength
+	 *            The maximal number of words of a match (the context depth).
+	 * @param matches
+	 *            The list to fill, cleared first. Ordered by end position,
+	 *            longer matches first.
+	 */
+	public void match(int[] ids, int length, int maxLength, MatchList matches) {
+		matches.clear();
+		match(ids, 0, length, maxLength, null, matches);
+	}
+
+	/**
+	 * Continue matching a sequence of word ids after its first words were
+	 * matched before, e.g. when words were appended to it. The state after
+	 * each word is kept, so only the new words are stepped through.
+	 * 
+	 * @param ids
+	 *            The word ids.
+	 * @param from
+	 *            The index of the first word not matched yet.
+	 * @param length
+	 *            The number of ids to use.
+	 * @param maxLength
+	 *            The maximal number of words of a match (the context depth).
+	 * @param states
+	 *            The state after each word, filled from the index from on.
+	 *            Might be null if from is 0.
+	 * @param matches
+	 *            The list the matches ending in the new words are appended
+	 *            to, ordered by end position, longer matches first.
+	 */
+	public void match(int[] ids, int from, int length, int maxLength,
+			int[] states, MatchList matches) {
+		if (!_compiled)
+			throw new IllegalStateException("automaton not compiled");
+		int state = from > 0 ? states[from - 1] : ROOT;
+		for (int i = from; i < length; i++) {
+			int token = ids[i];
+			if (token == TokenDictionary.UNKNOWN) {
+				state = ROOT;
+				if (states != null)
+					states[i] = state;
+				continue;
+			}
+			int next = step(state, token);
+			while (next == NONE && state != ROOT) {
+				state = _fail[state];
+				next = step(state, token);
+			}
+			state = next != NONE ? next : ROOT;
+			if (states != null)
+				states[i] = state;
+			int out = _outputs.get(state) != null ? state
+					: _outputLinks[state];
+			while (out != ROOT) {
+				int len = _depths[out];
+				if (len <= maxLength) {
+					matches.add(out, i + 1 - len, len);
+				}
+				out = _outputLinks[out];
+			}
+		}
+	}
+
+	/**
+	 * Get the dictionary of all words of the entries.
+	 * 
+	 * @return The dictionary.
+	 */
+	public TokenDictionary getDictionary() {
+		return _dictionary;
+	}
+
+	/**
+	 * Get the number of words of the longest entry.
+	 * 
+	 * @return The maximal entry length.
+	 */
+	public int getMaxDepth() {
+		return _maxDepth;
+	}
+
+	/**
+	 * Get the entry string for a match.
+	 * 
+	 * @param match
+	 *            The match.
+	 * @return The entry, e.g. "alfa romeo".
+	 */
+	public String getKey(Match match) {
+		return _keys.get(match._state);
+	}
+
+	/**
+	 * Get the entry string for a match of a match list.
+	 * 
+	 * @param matches
+	 *            The match list.
+	 * @param i
+	 *            The index of the match.
+	 * @return The entry, e.g. "alfa romeo".
+	 */
+	public String getKey(MatchList matches, int i) {
+		return _keys.get(matches._states[i]);
+	}
+
+	/**
+	 * Get the postings for a match, ordered by vocabulary index.
+	 * 
+	 * @param match
+	 *            The match.
+	 * @return The postings.
+	 */
+	public Posting[] getPostings(Match match) {
+		return _outputs.get(match._state);
+	}
+
+	/**
+	 * Get the postings for a match of a match list.
+	 * 
+	 * @param matches
+	 *            The match list.
+	 * @param i
+	 *            The index of the match.
+	 * @return The postings.
+	 */
+	public Posting[] getPostings(MatchList matches, int i) {
+		return _outputs.get(matches._states[i]);
+	}
+
+	/**
+	 * A reusable list of matches stored in primitive arrays.
+	 */
+	public static class MatchList {
+		private int[] _states = new int[16], _offsets = new int[16],
+				_lengths = new int[16];
+		private int _size = 0;
+
+		private void add(int state, int offset, int length) {
+			if (_size == _states.length) {
+				int newLen = _size * 2;
+				_states = Arrays.copyOf(_states, newLen);
+				_offsets = Arrays.copyOf(_offsets, newLen);
+				_lengths = Arrays.copyOf(_lengths, newLen);
+			}
+			_states[_size] = state;
+			_offsets[_size] = offset;
+			_lengths[_size] = length;
+			_size++;
+		}
+
+		/**
+		 * Remove all matches, the arrays are kept.
+		 */
+		public void clear() {
+			_size = 0;
+		}
+
+		/**
+		 * Get the number of matches.
+		 * 
+		 * @return The number of matches.
+		 */
+		public int size() {
+			return _size;
+		}
+
+		/**
+		 * Get the offset of the first word of a match.
+		 * 
+		 * @param i
+		 *            The index of the match.
+		 * @return The offset.
+		 */
+		public int getOffset(int i) {
+			return _offsets[i];
+		}
+
+		/**
+		 * Get the number of words of a match.
+		 * 
+		 * @param i
+		 *            The index of the match.
+		 * @return The length.
+		 */
+		public int getLength(int i) {
+			return _lengths[i];
+		}
+	}
+
+	/**
+	 * An entry found in the input.
+	 */
+	public static class Match {
+		private int _state, _offset, _length;
+
+		private Match(int state, int offset, int length) {
+			_state = state;
+			_offset = offset;
+			_length = length;
+		}
+
+		/**
+		 * Get the offset of the first word.
+		 * 
+		 * @return The offset.
+		 */
+		public int getOffset() {
+			return _offset;
+		}
+
+		/**
+		 * Get the number of words.
+		 * 
+		 * @return The length.
+		 */
+		public int getLength() {
+			return _length;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package com.tlabs.rootvole;
+
+/**
+ * A dictionary that maps each word known to the vocabularies of a parser to
+ * an int id. Inputs are converted once to an array of ids, words that aren't
+ * known get {@link #UNKNOWN} and can't be part of any vocabulary entry.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class TokenDictionary {
+	/**
+	 * The id of words that are not in the dictionary.
+	 */
+	public static final int UNKNOWN = -1;
+	private String[] _slots;
+	private int[] _slotIds;
+	private String[] _tokens;
+	private int _size = 0;
+
+	/**
+	 * Constructor, creates an empty dictionary.
+	 */
+	public TokenDictionary() {
+		_slots = new String[64];
+		_slotIds = new int[64];
+		_tokens = new String[32];
+	}
+
+	/**
+	 * Add a word if it's not yet in the dictionary.
+	 * 
+	 * @param token
+	 *            The word.
+	 * @return The id of the word.
+	 */
+	public int add(String token) {
+		int slot = slot(token.hashCode());
+		while (_slots[slot] != null) {
+			if (_slots[slot].equals(token))
+				return _slotIds[slot];
+			slot = (slot + 1) & (_slots.length - 1);
+		}
+		int id = _size++;
+		_slots[slot] = token;
+		_slotIds[slot] = id;
+		if (id == _tokens.length) {
+			String[] tokens = new String[id * 2];
+			System.arraycopy(_tokens, 0, tokens, 0, id);
+			_tokens = tokens;
+		}
+		_tokens[id] = token;
+		if (_size * 2 > _slots.length)
+			grow();
+		return id;
+	}
+
+	private void grow() {
+		String[] oldSlots = _slots;
+		int[] oldIds = _slotIds;
+		_slots = new String[oldSlots.length * 2];
+		_slotIds = new int[oldSlots.length * 2];
+		for (int i = 0; i < oldSlots.length; i++) {
+			if (oldSlots[i] != null) {
+				int slot = slot(oldSlots[i].hashCode());
+				while (_slots[slot] != null) {
+					slot = (slot + 1) & (_slots.length - 1);
+				}
+				_slots[slot] = oldSlots[i];
+				_slotIds[slot] = oldIds[i];
+			}
+		}
+	}
+
+	private int slot(int hash) {
+		return (hash ^ (hash >>> 16)) & (_slots.length - 1);
+	}
+
+	/**
+	 * Get the id of a word.
+	 * 
+	 * @param token
+	 *            The word.
+	 * @return The id or {@link #UNKNOWN}.
+	 */
+	public int getId(String token) {
+		int slot = slot(token.hashCode());
+		while (_slots[slot] != null) {
+			if (_slots[slot].equals(token))
+				return _slotIds[slot];
+			slot = (slot + 1) & (_slots.length - 1);
+		}
+		return UNKNOWN;
+	}
+
+	/**
+	 * Get the word for an id.
+	 * 
+	 * @param id
+	 *            The id.
+	 * @return The word.
+	 */
+	public String getToken(int id) {
+		return _tokens[id];
+	}
+
+	/**
+	 * Convert words to ids.
+	 * 
+	 * @param words
+	 *            The words.
+	 * @param ids
+	 *            The array to fill, might be null or too short.
+	 * @return The filled array, a new one if the given one was too short.
+	 */
+	public int[] encode(String[] words, int[] ids) {
+		if (ids == null || ids.length < words.length)
+			ids = new int[words.length];
+		for (int i = 0; i < words.length; i++) {
+			ids[i] = getId(words[i]);
+		}
+		return ids;
+	}
+
+	/**
+	 * Get the number of words.
+	 * 
+	 * @return The number of words.
+	 */
+	public int size() {
+		return _size;
+	}
+}
@@ -0,0 +1,202 @@
+package com.tlabs.rootvole;
+
+/**
+ * A view on a sequence of words of a token array, e.g. "alfa romeo" in
+ * "alfa", "romeo", "black". The words are only joined to a String when
+ * {@link #toString()} is called.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class TokenSpan implements CharSequence {
+	private final String[] _tokens;
+	private final int _offset, _length;
+	private String _string = null;
+	private int _hash = 0;
+	private static final int[] POW31 = new int[64];
+	static {
+		POW31[0] = 1;
+		for (int i = 1; i < POW31.length; i++) {
+			POW31[i] = POW31[i - 1] * 31;
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param tokens
+	 *            The token array, not copied.
+	 * @param offset
+	 *            The index of the first word.
+	 * @param length
+	 *            The number of words.
+	 */
+	public TokenSpan(String[] tokens, int offset, int length) {
+		_tokens = tokens;
+		_offset = offset;
+		_length = length;
+	}
+
+	/**
+	 * Get the index of the first word.
+	 * 
+	 * @return The offset.
+	 */
+	public int getOffset() {
+		return _offset;
+	}
+
+	/**
+	 * Get the number of words.
+	 * 
+	 * @return The number of words.
+	 */
+	public int getWordNum() {
+		return _length;
+	}
+
+	/**
+	 * Get the index after the last word.
+	 * 
+	 * @return The end index.
+	 */
+	public int getEnd() {
+		return _offset + _length;
+	}
+
+	/**
+	 * Get the number of characters, including the blanks between the words.
+	 */
+	public int length() {
+		int len = _length - 1;
+		for (int i = _offset; i < _offset + _length; i++) {
+			len += _tokens[i].length();
+		}
+		return len;
+	}
+
+	public char charAt(int index) {
+		int pos = index;
+		for (int i = _offset; i < _offset + _length; i++) {
+			String token = _tokens[i];
+			if (pos < token.length())
+				return token.charAt(pos);
+			pos -= token.length();
+			if (pos == 0 && i < _offset + _length - 1)
+				return ' ';
+			pos--;
+		}
+		throw new IndexOutOfBoundsException("index " + index);
+	}
+
+	public CharSequence subSequence(int start, int end) {
+		return toString().subSequence(start, end);
+	}
+
+	/**
+	 * Test if the words joined with blanks equal a string, without joining
+	 * them.
+	 * 
+	 * @param s
+	 *            The string, e.g. "alfa romeo".
+	 * @return True if equal.
+	 */
+	public boolean contentEquals(String s) {
+		int pos = 0, sLen = s.length();
+		for (int i = _offset; i < _offset + _length; i++) {
+			String token = _tokens[i];
+			if (i > _offset) {
+				if (pos >= sLen || s.charAt(pos) != ' ')
+					return false;
+				pos++;
+			}
+			if (!s.regionMatches(pos, token, 0, token.length()))
+				return false;
+			pos += token.length();
+		}
+		return pos == sLen;
+	}
+
+	/**
+	 * Get the same hash code as {@link String#hashCode()} of the words joined
+	 * by blanks, computed from the cached hash codes of the words.
+	 */
+	public int hashCode() {
+		int h = _hash;
+		if (h == 0 && _length > 0) {
+			h = _tokens[_offset].hashCode();
+			for (int i = _offset + 1; i < _offset + _length; i++) {
+				h = extendHash(h, _tokens[i]);
+			}
+			_hash = h;
+		}
+		return h;
+	}
+
+	/**
+	 * Spans are equal if they contain the same characters.
+	 */
+	public boolean equals(Object other) {
+		if (this == other)
+			return true;
+		if (!(other instanceof TokenSpan))
+			return false;
+		return hashCode() == other.hashCode()
+				&& contentEquals(other.toString());
+	}
+
+	/**
+	 * Compute the hash code of a string extended by a blank and a word, e.g.
+	 * of "alfa romeo" from the hash code of "alfa", as
+	 * {@link String#hashCode()} would.
+	 * 
+	 * @param hash
+	 *            The hash code of the string so far.
+	 * @param token
+	 *            The next word.
+	 * @return The hash code of the extended string.
+	 */
+	public static int extendHash(int hash, String token) {
+		int len = token.length();
+		return (hash * 31 + ' ') * pow31(len) + token.hashCode();
+	}
+
+	private static int pow31(int n) {
+		if (n < POW31.length)
+			return POW31[n];
+		int p = POW31[POW31.length - 1];
+		for (int i = POW31.length - 1; i < n; i++) {
+			p *= 31;
+		}
+		return p;
+	}
+
+	/**
+	 * Create a multi string word for this span.
+	 * 
+	 * @return The multi string word, offset and length in words.
+	 */
+	public MultiStringWord toMultiStringWord() {
+		return new MultiStringWord(toString(), _offset, _length);
+	}
+
+	/**
+	 * Get the words joined by blanks, computed on the first call.
+	 */
+	public String toString() {
+		if (_string == null) {
+			if (_length == 1) {
+				_string = _tokens[_offset];
+			} else {
+				StringBuilder sb = new StringBuilder(length());
+				for (int i = _offset; i < _offset + _length; i++) {
+					if (i > _offset)
+						sb.append(' ');
+					sb.append(_tokens[i]);
+				}
+				_string = sb.toString();
+			}
+		}
+		return _string;
+	}
+}
@@ -41,6 +41,27 @@ public class Value {
 		_isDouble = isDouble;
 	}
 
+	/**
+	 * Copy constructor.
+	 * 
+	 * @param value
+	 *            The value to copy.
+	 */
+	public Value(Value value) {
+		super();
+		_valuesId = value._valuesId;
+		_featureName = value._featureName;
+		_unit = value._unit;
+		_isMax = value._isMax;
+		_isMin = value._isMin;
+		_valueDouble = value._valueDouble;
+		_valueInt = value._valueInt;
+		_valueLowerDouble = value._valueLowerDouble;
+		_valueLowerInt = value._valueLowerInt;
+		_hasLowerBound = value._hasLowerBound;
+		_isDouble = value._isDouble;
+	}
+
 	/**
 	 * Constructor from a JSon array.
 	 * 
@@ -18,6 +18,7 @@ public class ValueDescription {
 	private VocabEntry _minConstraints;
 	private VocabEntry _intervalWords;
 	private boolean _isPostfix = true, _isDouble = false;
+	private int _modCount = 0;
 
 	/**
 	 * Constructor.
@@ -36,6 +37,39 @@ public class ValueDescription {
 		_isDouble = isDouble;
 	}
 
+	/**
+	 * Copy constructor, the vocabulary entries are copied as well.
+	 * 
+	 * @param other
+	 *            The value description to copy.
+	 */
+	ValueDescription(ValueDescription other) {
+		_id = other._id;
+		_featureName = other._featureName;
+		_units = copyEntry(other._units);
+		_maxConstraints = copyEntry(other._maxConstraints);
+		_minConstraints = copyEntry(other._minConstraints);
+		_intervalWords = copyEntry(other._intervalWords);
+		_isPostfix = other._isPostfix;
+		_isDouble = other._isDouble;
+		_modCount = other._modCount;
+	}
+
+	private static VocabEntry copyEntry(VocabEntry entry) {
+		if (entry == null)
+			return null;
+		return new VocabEntry(entry);
+	}
+
+	/**
+	 * Get a counter that changes whenever this description is changed.
+	 * 
+	 * @return The modification count.
+	 */
+	int getModCount() {
+		return _modCount;
+	}
+
 	/**
 	 * Search for a value.
 	 * 
@@ -78,51 +112,33 @@ public class ValueDescription {
 			if (_units.isSynonym(w)) {
 				if (i >= 1) {
 					testVal = test[i - 1];
-					try {
-						resultVal = tryValue(testVal);
-//								
-//								new Value(_id, _featureName, _isDouble);
-//						if (_isDouble) {
-//							resultVal.set_value(Double.parseDouble(testVal));
-//						} else {
-//							resultVal.set_value(Integer.parseInt(testVal
-//									.replace(".", "")));
-//						}
-//						resultVal.set_unit(_units.get_key());
-
-						found = true;
-						restStack.pop();
-						if (i >= 2) {
-							testConstraint = test[i - 2];
-							if (_maxConstraints.isSynonym(testConstraint)) {
-								resultVal.set_isMax(true);
-								restStack.pop();
-							} else if (_minConstraints
-									.isSynonym(testConstraint)) {
-								resultVal.set_isMin(true);
-								restStack.pop();
-							} else {
-							}
+					Value value = tryValue(testVal);
+					if (value == null) {
+						// not a number, e.g. "golf euro"
+						continue;
+					}
+					resultVal = value;
+					found = true;
+					restStack.pop();
+					if (i >= 2) {
+						testConstraint = test[i - 2];
+						if (_maxConstraints.isSynonym(testConstraint)) {
+							resultVal.set_isMax(true);
+							restStack.pop();
+						} else if (_minConstraints.isSynonym(testConstraint)) {
+							resultVal.set_isMin(true);
+							restStack.pop();
+						} else {
 						}
-						if (i >= 3 && _intervalWords != null) {
-							// check for double values, e.g.
-							// "between x and y dollar"
-							String testBetweenWord = test[i - 2];
-							if (_intervalWords.isSynonym(testBetweenWord)) {
-								String testVallower = test[i - 3];
-								if (_isDouble) {
-									resultVal.setValueLowerDouble(Double
-											.parseDouble(testVallower));
-								} else {
-									resultVal.setValueLowerInt(Integer
-											.parseInt(testVallower.replace(".",
-													"")));
-								}
-								restStack.pop();
-							}
+					}
+					if (i >= 3 && _intervalWords != null) {
+						// check for double values, e.g.
+						// "between x and y dollar"
+						String testBetweenWord = test[i - 2];
+						if (_intervalWords.isSynonym(testBetweenWord)
+								&& trySetLowerValue(resultVal, test[i - 3])) {
+							restStack.pop();
 						}
-					} catch (NumberFormatException e) {
-						// numberformatException accepted
 					}
 				}
 			} else {
@@ -146,51 +162,56 @@ public class ValueDescription {
 		}
 		for (int i = 0; i < wordNum; i++) {
 			String w = test[i];
-			try {
-				if (_units.isSynonym(w)) {
-					if (i < wordNum - 1) {
-						testVal = test[i + 1];
-						if (_maxConstraints.isSynonym(testVal)) {
-							if (i < wordNum - 2) {
-								testVal = test[i + 2];
-								resultVal = tryValue(testVal);
-								i++;
-							}
-							resultVal.set_isMax(true);
+			if (_units.isSynonym(w)) {
+				if (i < wordNum - 1) {
+					testVal = test[i + 1];
+					if (_maxConstraints.isSynonym(testVal)) {
+						if (i < wordNum - 2) {
+							testVal = test[i + 2];
+							Value value = tryValue(testVal);
+							if (value == null)
+								continue;
+							resultVal = value;
 							i++;
-							found = true;
-						} else if (_minConstraints.isSynonym(testVal)) {
-							if (i < wordNum - 2) {
-								testVal = test[i + 2];
-								resultVal = tryValue(testVal);
-								i++;
-							}
-							resultVal.set_isMin(true);
+						}
+						resultVal.set_isMax(true);
+						i++;
+						found = true;
+					} else if (_minConstraints.isSynonym(testVal)) {
+						if (i < wordNum - 2) {
+							testVal = test[i + 2];
+							Value value = tryValue(testVal);
+							if (value == null)
+								continue;
+							resultVal = value;
 							i++;
-							found = true;
-						} else {
-							resultVal = tryValue(testVal);
-							found = true;
-							if (i >= 1) {
-								testConstraint = test[i - 1];
-								if (_maxConstraints.isSynonym(testConstraint)) {
-									resultVal.set_isMax(true);
-									restStack.pop();
-								} else if (_minConstraints
-										.isSynonym(testConstraint)) {
-									resultVal.set_isMin(true);
-									restStack.pop();
-								} else {
-								}
+						}
+						resultVal.set_isMin(true);
+						i++;
+						found = true;
+					} else {
+						Value value = tryValue(testVal);
+						if (value == null)
+							continue;
+						resultVal = value;
+						found = true;
+						if (i >= 1) {
+							testConstraint = test[i - 1];
+							if (_maxConstraints.isSynonym(testConstraint)) {
+								resultVal.set_isMax(true);
+								restStack.pop();
+							} else if (_minConstraints
+									.isSynonym(testConstraint)) {
+								resultVal.set_isMin(true);
+								restStack.pop();
+							} else {
 							}
-							i++;
 						}
+						i++;
 					}
-				} else {
-					restStack.push(w);
 				}
-			} catch (NumberFormatException e) {
-				// TODO: handle exception
+			} else {
+				restStack.push(w);
 			}
 		}
 		if (!found) {
@@ -199,25 +220,72 @@ public class ValueDescription {
 		return new ValueResult(resultVal, restStack.toStringArrayReverse());
 	}
 
-	private Value tryValue(String testVal) {
+	/**
+	 * Create a value from a word.
+	 * 
+	 * @param testVal
+	 *            The word, e.g. "3.000".
+	 * @return The value or null if the word is not a number.
+	 */
+	Value tryValue(String testVal) {
 		Value resultVal;
-		resultVal = new Value(_id, _featureName, _isDouble);
 		if (_isDouble) {
-			resultVal.set_value(Double.parseDouble(testVal));
+			double value = NumberScanner.scanDouble(testVal);
+			if (Double.isNaN(value))
+				return null;
+			resultVal = new Value(_id, _featureName, _isDouble);
+			resultVal.set_value(value);
 		} else {
-			resultVal.set_value(Integer.parseInt(testVal
-					.replace(".", "")));
+			long value = NumberScanner.scanInt(testVal);
+			if (value == NumberScanner.NO_INT)
+				return null;
+			resultVal = new Value(_id, _featureName, _isDouble);
+			resultVal.set_value((int) value);
 		}
 		resultVal.set_unit(_units.get_key());
 		return resultVal;
 	}
 
+	/**
+	 * Set the lower value of an interval from a word.
+	 * 
+	 * @param resultVal
+	 *            The value.
+	 * @param testVal
+	 *            The word, e.g. "200" in "200 bis 300 euro".
+	 * @return False if the word is not a number.
+	 */
+	boolean trySetLowerValue(Value resultVal, String testVal) {
+		if (_isDouble) {
+			double value = NumberScanner.scanDouble(testVal);
+			if (Double.isNaN(value))
+				return false;
+			resultVal.setValueLowerDouble(value);
+		} else {
+			long value = NumberScanner.scanInt(testVal);
+			if (value == NumberScanner.NO_INT)
+				return false;
+			resultVal.setValueLowerInt((int) value);
+		}
+		return true;
+	}
+
+	/**
+	 * Test if the unit is written after the value, e.g. "300 euro".
+	 * 
+	 * @return True for postfix, false for prefix notation.
+	 */
+	boolean isPostfix() {
+		return _isPostfix;
+	}
+
 	public String getFeatureName() {
 		return _featureName;
 	}
 
 	public void setFeatureName(String featureName) {
 		this._featureName = featureName;
+		_modCount++;
 	}
 
 	/**
@@ -246,6 +314,7 @@ public class ValueDescription {
 	 */
 	public void set_units(VocabEntry _units) {
 		this._units = _units;
+		_modCount++;
 	}
 
 	public VocabEntry get_betweenWords() {
@@ -254,6 +323,7 @@ public class ValueDescription {
 
 	public void set_betweenWords(VocabEntry _betweenWords) {
 		this._intervalWords = _betweenWords;
+		_modCount++;
 	}
 
 	/**
@@ -273,6 +343,7 @@ public class ValueDescription {
 	 */
 	public void set_maxConstraints(VocabEntry _maxConstraints) {
 		this._maxConstraints = _maxConstraints;
+		_modCount++;
 	}
 
 	/**
@@ -292,6 +363,7 @@ public class ValueDescription {
 	 */
 	public void set_minConstraints(VocabEntry _minConstraints) {
 		this._minConstraints = _minConstraints;
+		_modCount++;
 	}
 
 	/**
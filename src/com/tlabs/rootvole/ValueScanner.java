@@ -0,0 +1,485 @@
+package com.tlabs.rootvole;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Finds the values of all value descriptions of a parser in one pass over
+ * the words of an input, e.g. "max 3.000 euro" and "baujahr 2003" in "golf
+ * max 3.000 euro baujahr 2003".
+ * 
+ * The descriptions are searched in the order they were added, as when
+ * {@link ValueDescription#searchValue(String[])} was called for each of
+ * them on the rest left by the ones before: the words of a found value
+ * (unit, number, constraint and interval words) are marked as consumed and
+ * later descriptions only see the words not consumed yet, e.g. "2003" is a
+ * price in "baujahr 2003 euro" if the price is described first. A unit word
+ * used by several descriptions gives a value for each of them that finds a
+ * number. The input is only looked up once, for the positions of the unit
+ * words.
+ * 
+ * Numbers and constraints are only taken from the words right before or
+ * after a unit word in the words a description searches, i.e. the input
+ * without the values of the descriptions before. A word used by a value of
+ * the same description isn't skipped, so "5 200 euro euro" is one price of
+ * 200. Once a description found a value, its other unit words are dropped
+ * from the rest as well, like {@link ValueDescription#searchValue(String[])}
+ * does. Unlike that method every occurrence results in a value, not only
+ * the last one.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class ValueScanner {
+	private final ValueDescription[] _descriptions;
+	/**
+	 * Maps each unit word to the ascending indexes of the descriptions that
+	 * use it.
+	 */
+	private final HashMap<String, int[]> _units;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param descriptions
+	 *            The value descriptions, must not be changed afterwards.
+	 *            Descriptions without units are ignored.
+	 */
+	public ValueScanner(ValueDescription[] descriptions) {
+		_descriptions = descriptions;
+		_units = new HashMap<String, int[]>();
+		for (int d = 0; d < descriptions.length; d++) {
+			VocabEntry units = descriptions[d].get_units();
+			if (units == null)
+				continue;
+			if (units.is_hasSynonyms()) {
+				for (String unit : units.get_synonyms()) {
+					if (unit != null)
+						addUnit(unit, d);
+				}
+			} else {
+				addUnit(units.get_key(), d);
+			}
+		}
+	}
+
+	private void addUnit(String unit, int description) {
+		int[] descriptions = _units.get(unit);
+		if (descriptions == null) {
+			_units.put(unit, new int[] { description });
+		} else if (descriptions[descriptions.length - 1] != description) {
+			descriptions = Arrays.copyOf(descriptions, descriptions.length + 1);
+			descriptions[descriptions.length - 1] = description;
+			_units.put(unit, descriptions);
+		}
+	}
+
+	private static boolean contains(int[] descriptions, int description) {
+		for (int d : descriptions) {
+			if (d == description)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Test if there are any descriptions to search for.
+	 * 
+	 * @return True if no value can be found.
+	 */
+	public boolean isEmpty() {
+		return _units.isEmpty();
+	}
+
+	/**
+	 * Find all values in a sequence of words.
+	 * 
+	 * @param words
+	 *            The words, e.g. "golf", "max", "3.000", "euro".
+	 * @param parseResult
+	 *            The result the values are added to, ordered by description
+	 *            and then by position.
+	 * @param scratch
+	 *            The buffers.
+	 * @return The words not used by any value, the same array if there are
+	 *         none.
+	 */
+	public String[] scan(String[] words, ParseResult parseResult,
+			ParseScratch scratch) {
+		int wordNum = words.length;
+		if (wordNum < 2 || _units.isEmpty())
+			return words;
+		int[] unitPositions = scratch.getUnitBuffer(wordNum);
+		int unitNum = 0;
+		for (int i = 0; i < wordNum; i++) {
+			if (_units.containsKey(words[i]))
+				unitPositions[unitNum++] = i;
+		}
+		if (unitNum == 0)
+			return words;
+		int[] owners = scratch.getOwnerBuffer(wordNum);
+		boolean found = false;
+		for (int d = 0; d < _descriptions.length; d++) {
+			boolean foundValue = false;
+			for (int u = 0; u < unitNum; u++) {
+				Value value = scanUnit(d, words, owners, unitPositions[u]);
+				if (value == null)
+					continue;
+				foundValue = true;
+				parseResult.addValue(value);
+			}
+			if (foundValue) {
+				consumeUnits(d, words, owners, unitPositions, unitNum);
+				found = true;
+			}
+		}
+		if (!found)
+			return words;
+		return rest(words, owners, scratch.getConsumedBuffer(wordNum));
+	}
+
+	/**
+	 * Find all values in the next input of a {@link ParseSession}. Only the
+	 * words after the last one before the first changed word that can't be
+	 * part of a value are scanned again (see {@link #isBarrier(String)}),
+	 * the values before it stay as they were: no value reaches over such a
+	 * word, so the words before it are used by the same values as before.
+	 * This is unless a description finds its first value or loses its last
+	 * one, which changes whether its unit words without a number are left in
+	 * the rest everywhere, then all words are scanned again.
+	 * 
+	 * @param words
+	 *            All words of the input.
+	 * @param same
+	 *            The number of words at the start of the input that are the
+	 *            same as in the last input scanned with the state.
+	 * @param state
+	 *            The values of the last input, updated for this one.
+	 * @param parseResult
+	 *            The result the values are added to, ordered by description
+	 *            and then by position.
+	 * @param scratch
+	 *            The buffers.
+	 * @return The words not used by any value, the same array if there are
+	 *         none.
+	 */
+	String[] scan(String[] words, int same, ScanState state,
+			ParseResult parseResult, ParseScratch scratch) {
+		int wordNum = words.length;
+		int from = same;
+		while (from > 0 && !isBarrier(words[from - 1])) {
+			from--;
+		}
+		state.prepare(_descriptions.length, wordNum);
+		if (!scanFrom(words, from, state, scratch)) {
+			from = 0;
+			scanFrom(words, from, state, scratch);
+		}
+		int[] owners = state._owners, free = state._free;
+		int kept = free[from];
+		for (int i = from; i < wordNum; i++) {
+			free[i + 1] = owners[i] == 0 ? free[i] + 1 : free[i];
+		}
+		String[] rest = words;
+		if (free[wordNum] < wordNum) {
+			rest = new String[free[wordNum]];
+			System.arraycopy(state._rest, 0, rest, 0, kept);
+			for (int i = from; i < wordNum; i++) {
+				if (owners[i] == 0)
+					rest[kept++] = words[i];
+			}
+		}
+		state._rest = rest;
+		state._from = from;
+		state._kept = free[from];
+		// copies, the state keeps the values for the next input
+		for (int d = 0; d < _descriptions.length; d++) {
+			for (int k = 0; k < state._valueNums[d]; k++) {
+				parseResult.addValue(new Value(state._values[d][k]));
+			}
+		}
+		return rest;
+	}
+
+	/**
+	 * Scan the words from a position on, the values before stay.
+	 * 
+	 * @return False if a description found its first value or lost its last
+	 *         one, the state is half updated then.
+	 */
+	private boolean scanFrom(String[] words, int from, ScanState state,
+			ParseScratch scratch) {
+		int wordNum = words.length;
+		int[] owners = state._owners;
+		Arrays.fill(owners, from, wordNum, 0);
+		int[] unitPositions = scratch.getUnitBuffer(wordNum - from);
+		int unitNum = 0;
+		for (int i = from; i < wordNum; i++) {
+			if (_units.containsKey(words[i]))
+				unitPositions[unitNum++] = i;
+		}
+		for (int d = 0; d < _descriptions.length; d++) {
+			boolean foundBefore = state._valueNums[d] > 0;
+			state.remove(d, from);
+			for (int u = 0; u < unitNum; u++) {
+				int i = unitPositions[u];
+				Value value = scanUnit(d, words, owners, i);
+				if (value != null)
+					state.add(d, value, i);
+			}
+			boolean foundValue = state._valueNums[d] > 0;
+			if (from > 0 && foundValue != foundBefore)
+				return false;
+			if (foundValue)
+				consumeUnits(d, words, owners, unitPositions, unitNum);
+		}
+		return true;
+	}
+
+	/**
+	 * Test if no value can reach over a word, i.e. it is no unit, number or
+	 * constraint of any description.
+	 */
+	private boolean isBarrier(String word) {
+		if (_units.isEmpty())
+			return true;
+		if (_units.containsKey(word)
+				|| NumberScanner.scanInt(word) != NumberScanner.NO_INT
+				|| !Double.isNaN(NumberScanner.scanDouble(word)))
+			return false;
+		for (ValueDescription description : _descriptions) {
+			if (isSynonym(description.get_maxConstraints(), word)
+					|| isSynonym(description.get_minConstraints(), word)
+					|| isSynonym(description.get_betweenWords(), word))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Find the value of a description at a unit word if the word isn't used
+	 * yet.
+	 * 
+	 * @return The value or null if there is none.
+	 */
+	private Value scanUnit(int description, String[] words, int[] owners,
+			int unit) {
+		if (owners[unit] != 0
+				|| !contains(_units.get(words[unit]), description))
+			return null;
+		ValueDescription desc = _descriptions[description];
+		int owner = description + 1;
+		Value value = desc.isPostfix() ? scanPostfix(desc, owner, words,
+				owners, unit) : scanPrefix(desc, owner, words, owners, unit);
+		if (value != null)
+			owners[unit] = owner;
+		return value;
+	}
+
+	/**
+	 * Drop the unit words of a description that found a value from the rest,
+	 * also the ones without a number.
+	 */
+	private void consumeUnits(int description, String[] words, int[] owners,
+			int[] unitPositions, int unitNum) {
+		for (int u = 0; u < unitNum; u++) {
+			int i = unitPositions[u];
+			if (owners[i] == 0 && contains(_units.get(words[i]), description))
+				owners[i] = description + 1;
+		}
+	}
+
+	private Value scanPostfix(ValueDescription description, int owner,
+			String[] words, int[] owners, int unit) {
+		int valuePos = previous(owners, owner, unit);
+		if (valuePos < 0)
+			return null;
+		Value value = description.tryValue(words[valuePos]);
+		if (value == null)
+			return null;
+		owners[valuePos] = owner;
+		int constraintPos = previous(owners, owner, valuePos);
+		if (constraintPos < 0)
+			return value;
+		String constraint = words[constraintPos];
+		if (isSynonym(description.get_maxConstraints(), constraint)) {
+			value.set_isMax(true);
+			owners[constraintPos] = owner;
+		} else if (isSynonym(description.get_minConstraints(), constraint)) {
+			value.set_isMin(true);
+			owners[constraintPos] = owner;
+		}
+		// check for intervals, e.g. "between x and y dollar"
+		if (isSynonym(description.get_betweenWords(), constraint)) {
+			int lowerPos = previous(owners, owner, constraintPos);
+			if (lowerPos >= 0
+					&& description.trySetLowerValue(value, words[lowerPos])) {
+				owners[constraintPos] = owner;
+				owners[lowerPos] = owner;
+			}
+		}
+		return value;
+	}
+
+	private Value scanPrefix(ValueDescription description, int owner,
+			String[] words, int[] owners, int unit) {
+		int nextPos = next(owners, owner, unit, words.length);
+		if (nextPos < 0)
+			return null;
+		String nextWord = words[nextPos];
+		boolean isMax = isSynonym(description.get_maxConstraints(), nextWord);
+		boolean isMin = !isMax
+				&& isSynonym(description.get_minConstraints(), nextWord);
+		if (isMax || isMin) {
+			int valuePos = next(owners, owner, nextPos, words.length);
+			if (valuePos < 0)
+				return null;
+			Value value = description.tryValue(words[valuePos]);
+			if (value == null)
+				return null;
+			if (isMax)
+				value.set_isMax(true);
+			else
+				value.set_isMin(true);
+			owners[nextPos] = owner;
+			owners[valuePos] = owner;
+			return value;
+		}
+		Value value = description.tryValue(nextWord);
+		if (value == null)
+			return null;
+		owners[nextPos] = owner;
+		int constraintPos = previous(owners, owner, unit);
+		if (constraintPos >= 0) {
+			String constraint = words[constraintPos];
+			if (isSynonym(description.get_maxConstraints(), constraint)) {
+				value.set_isMax(true);
+				owners[constraintPos] = owner;
+			} else if (isSynonym(description.get_minConstraints(),
+					constraint)) {
+				value.set_isMin(true);
+				owners[constraintPos] = owner;
+			}
+		}
+		return value;
+	}
+
+	private static boolean isSynonym(VocabEntry entry, String word) {
+		return entry != null && entry.isSynonym(word);
+	}
+
+	/**
+	 * Get the position of the word right before another one in the words a
+	 * description searches, i.e. skipping the values of the descriptions
+	 * before.
+	 * 
+	 * @return The position, -1 if there is none or the word belongs to a
+	 *         value of the same description.
+	 */
+	private static int previous(int[] owners, int owner, int pos) {
+		for (int i = pos - 1; i >= 0; i--) {
+			if (owners[i] == 0)
+				return i;
+			if (owners[i] == owner)
+				return -1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the position of the word right after another one in the words a
+	 * description searches, see {@link #previous(int[], int, int)}.
+	 */
+	private static int next(int[] owners, int owner, int pos, int wordNum) {
+		for (int i = pos + 1; i < wordNum; i++) {
+			if (owners[i] == 0)
+				return i;
+			if (owners[i] == owner)
+				return -1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the words not used by a value.
+	 * 
+	 * @param consumed
+	 *            Set for the words used by a value.
+	 */
+	private static String[] rest(String[] words, int[] owners,
+			boolean[] consumed) {
+		int keep = 0;
+		for (int i = 0; i < words.length; i++) {
+			consumed[i] = owners[i] != 0;
+			if (!consumed[i])
+				keep++;
+		}
+		String[] rest = new String[keep];
+		keep = 0;
+		for (int i = 0; i < words.length; i++) {
+			if (!consumed[i])
+				rest[keep++] = words[i];
+		}
+		return rest;
+	}
+
+	/**
+	 * The values a {@link ParseSession} found in its last input and the words
+	 * they use, so the next input is only scanned after its changes.
+	 */
+	static class ScanState {
+		// the description that used each word plus one, 0 for none
+		int[] _owners = new int[16];
+		// the number of words not used by a value before each word
+		int[] _free = new int[17];
+		// the words not used by a value
+		String[] _rest = InputNormalizer.NO_WORDS;
+		// the first word scanned again and the number of rest words before
+		int _from = 0, _kept = 0;
+		// the values of each description and their unit words by position
+		Value[][] _values = null;
+		int[][] _units = null;
+		int[] _valueNums = null;
+
+		/**
+		 * Make room for the words of an input, keeping the ones before.
+		 */
+		void prepare(int descriptionNum, int wordNum) {
+			if (_valueNums == null) {
+				_values = new Value[descriptionNum][4];
+				_units = new int[descriptionNum][4];
+				_valueNums = new int[descriptionNum];
+			}
+			if (_owners.length < wordNum) {
+				int size = Math.max(wordNum, _owners.length * 2);
+				_owners = Arrays.copyOf(_owners, size);
+				_free = Arrays.copyOf(_free, size + 1);
+			}
+		}
+
+		void add(int description, Value value, int unit) {
+			int num = _valueNums[description];
+			if (num == _values[description].length) {
+				_values[description] = Arrays.copyOf(_values[description],
+						num * 2);
+				_units[description] = Arrays.copyOf(_units[description],
+						num * 2);
+			}
+			_values[description][num] = value;
+			_units[description][num] = unit;
+			_valueNums[description] = num + 1;
+		}
+
+		/**
+		 * Remove the values of a description with a unit word from a
+		 * position on.
+		 */
+		void remove(int description, int from) {
+			int num = _valueNums[description];
+			while (num > 0 && _units[description][num - 1] >= from) {
+				_values[description][--num] = null;
+			}
+			_valueNums[description] = num;
+		}
+	}
+}
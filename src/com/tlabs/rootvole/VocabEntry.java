@@ -1,8 +1,9 @@
 package com.tlabs.rootvole;
 
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Random;
 
-import com.felix.util.StringUtil;
 import com.felix.util.Util;
 
 /**
@@ -15,6 +16,11 @@ public class VocabEntry {
 	private String _key = "";
 	private String[] _synonyms;
 	private boolean _hasSynonyms = false;
+	/**
+	 * The synonyms as a hash set, built on the first test and dropped when the
+	 * synonyms change. Immutable, so it can be shared by threads.
+	 */
+	private StringSet _synonymSet = null;
 
 	/**
 	 * Constructor.
@@ -33,6 +39,20 @@ public class VocabEntry {
 		this._hasSynonyms = _hasSynonyms;
 	}
 
+	/**
+	 * Copy constructor.
+	 * 
+	 * @param other
+	 *            The entry to copy.
+	 */
+	public VocabEntry(VocabEntry other) {
+		_key = other._key;
+		if (other._synonyms != null)
+			_synonyms = other._synonyms.clone();
+		_hasSynonyms = other._hasSynonyms;
+		_synonymSet = other._synonymSet;
+	}
+
 	/**
 	 * Constructor with a set of words, first word is key.
 	 * 
@@ -56,9 +76,14 @@ public class VocabEntry {
 	 * @return The result, e.g. "true" for "2cv, ente"
 	 */
 	public boolean isSynonym(String test) {
-		if (_hasSynonyms)
-			return StringUtil.isStringInArray(test, _synonyms);
-		else {
+		if (_hasSynonyms) {
+			StringSet synonymSet = _synonymSet;
+			if (synonymSet == null) {
+				synonymSet = new StringSet(_synonyms);
+				_synonymSet = synonymSet;
+			}
+			return synonymSet.contains(test);
+		} else {
 			if (_key.compareTo(test) == 0)
 				return true;
 			return false;
@@ -74,17 +99,30 @@ public class VocabEntry {
 	public void addSynonyms(VocabEntry ve) {
 		if (_hasSynonyms) {
 			if (ve.is_hasSynonyms()) {
-				_synonyms = StringUtil.unifyStringArrays(_synonyms,
-						ve.get_synonyms());
+				_synonyms = unify(_synonyms, ve.get_synonyms());
+				_synonymSet = null;
 			}
 		} else {
 			if (ve.is_hasSynonyms()) {
 				this._synonyms = ve.get_synonyms();
 				_hasSynonyms = true;
+				_synonymSet = null;
 			}
 		}
 	}
 
+	/**
+	 * Join two synonym arrays in one pass, keeping the order and dropping
+	 * duplicates.
+	 */
+	private static String[] unify(String[] synonyms, String[] others) {
+		LinkedHashSet<String> unified = new LinkedHashSet<String>(
+				(synonyms.length + others.length) * 2);
+		Collections.addAll(unified, synonyms);
+		Collections.addAll(unified, others);
+		return unified.toArray(new String[unified.size()]);
+	}
+
 	/**
 	 * Test of it has the same key string.
 	 * 
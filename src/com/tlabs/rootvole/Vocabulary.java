@@ -3,9 +3,18 @@ package com.tlabs.rootvole;
 import java.io.BufferedOutputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.felix.util.FileUtil;
 import com.felix.util.StringUtil;
@@ -19,15 +28,25 @@ import com.felix.util.StringUtil;
  * 
  */
 public class Vocabulary {
-	private Vector<VocabEntry> _vocab;
+	/**
+	 * Default number of changed entries after which the delta is compacted.
+	 */
+	public static final int DEFAULT_COMPACTION_THRESHOLD = 1000;
 	private boolean _withSynonyms = false, _includeIDinSearch = true,
 			_multipleIds = false;
-	private HashMap<String, String> _vocabHashMap;
-	private HashMap<String, Vector> _vocabMultipleIDsHashMap;
 	private String _id = null,
 			_vocabSeparator = Constants.VOCAB_DEFAULT_SEPARATOR;
-	private String[] _vocabArray = null;
-	private String[] _forbiddenEntries = null;
+	private HashSet<String> _forbiddenEntries = null;
+	/**
+	 * The entries and lookup maps, replaced as a whole by
+	 * {@link #reload(Vector, boolean)}.
+	 */
+	private volatile Entries _entries = new Entries();
+	private volatile int _modCount = 0, _deltaCount = 0;
+	private int _compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+	private final AtomicBoolean _compacting = new AtomicBoolean();
+	private final CopyOnWriteArrayList<VocabularyListener> _listeners =
+			new CopyOnWriteArrayList<VocabularyListener>();
 
 	/**
 	 * Constructor.
@@ -68,7 +87,12 @@ public class Vocabulary {
 	 * @param e
 	 */
 	public void setForbiddenEntries(String[] e) {
-		_forbiddenEntries = e;
+		if (e == null) {
+			_forbiddenEntries = null;
+			return;
+		}
+		_forbiddenEntries = new HashSet<String>(e.length * 2);
+		Collections.addAll(_forbiddenEntries, e);
 	}
 
 	/**
@@ -81,13 +105,15 @@ public class Vocabulary {
 	 */
 	public Vocabulary(String id, String[] elements) {
 		_id = id;
-		_vocab = new Vector<VocabEntry>();
-		_vocabHashMap = new HashMap<String, String>();
+		Entries entries = _entries;
+		entries._vocab = new Vector<VocabEntry>();
+		entries._vocabHashMap = new HashMap<String, String>();
 		for (String element : elements) {
 			VocabEntry ie = new VocabEntry(element, null, false);
-			_vocab.add(ie);
-			_vocabHashMap.put(element, element);
+			entries._vocab.add(ie);
+			entries._vocabHashMap.put(element, element);
 		}
+		entriesChanged();
 	}
 
 	public boolean is_includeIDinSearch() {
@@ -103,6 +129,7 @@ public class Vocabulary {
 	 */
 	public void setMultipleIDs(boolean hasMultipleIDs) {
 		_multipleIds = hasMultipleIDs;
+		entriesChanged();
 	}
 
 	/**
@@ -138,9 +165,19 @@ public class Vocabulary {
 	 * @return
 	 */
 	public String[] getVocabAsArray() {
-		if (_vocabArray == null)
-			fillVocabArray();
-		return _vocabArray;
+		Entries entries = _entries;
+		if (entries._delta != null) {
+			Vector<VocabEntry> vocab = getCurrentEntries(entries);
+			String[] vocabArray = new String[vocab.size()];
+			for (int i = 0; i < vocabArray.length; i++) {
+				vocabArray[i] = vocab.elementAt(i).get_key();
+			}
+			return vocabArray;
+		}
+		String[] vocabArray = entries._vocabArray;
+		if (vocabArray == null)
+			vocabArray = fillVocabArray(entries);
+		return vocabArray;
 	}
 
 	/**
@@ -177,6 +214,132 @@ public class Vocabulary {
 
 	}
 
+	/**
+	 * Load the vocabulary from a large file without reading all lines into
+	 * memory first, the lines are parsed in parallel, see
+	 * {@link VocabularyLoader}.
+	 * 
+	 * @param filepath
+	 * @param withSynonyms
+	 * @param charset
+	 *            The charset of the file, e.g. UTF-8.
+	 * @throws Exception
+	 */
+	public void loadVocabFromFile(String filepath, boolean withSynonyms,
+			Charset charset) throws Exception {
+		new VocabularyLoader(charset, ForkJoinPool.commonPool(),
+				VocabularyLoader.DEFAULT_CHUNK_SIZE).load(this, filepath,
+				withSynonyms);
+	}
+
+	/**
+	 * Replace all entries while other threads may use this vocabulary. The
+	 * new entries are loaded into a separate vocabulary with the same
+	 * settings and then published at once, so a concurrent lookup sees
+	 * either the old or the new entries. The listeners are notified
+	 * afterwards.
+	 * 
+	 * @param elements
+	 *            The new lines.
+	 * @param withSynonyms
+	 *            If the lines contain synonyms.
+	 */
+	public void reload(Vector<String> elements, boolean withSynonyms) {
+		Vocabulary staging = newStaging();
+		staging.loadVocabFromVector(elements, withSynonyms);
+		publish(staging, withSynonyms);
+	}
+
+	/**
+	 * Replace all entries with the lines of a file while other threads may
+	 * use this vocabulary, see {@link #reload(Vector, boolean)}.
+	 * 
+	 * @param filepath
+	 * @param withSynonyms
+	 * @param charset
+	 *            The charset of the file, e.g. UTF-8.
+	 * @throws Exception
+	 */
+	public void reloadFromFile(String filepath, boolean withSynonyms,
+			Charset charset) throws Exception {
+		Vocabulary staging = newStaging();
+		new VocabularyLoader(charset, ForkJoinPool.commonPool(),
+				VocabularyLoader.DEFAULT_CHUNK_SIZE).load(staging, filepath,
+				withSynonyms);
+		publish(staging, withSynonyms);
+	}
+
+	private Vocabulary newStaging() {
+		Vocabulary staging = new Vocabulary(_id);
+		staging._vocabSeparator = _vocabSeparator;
+		staging._includeIDinSearch = _includeIDinSearch;
+		staging._multipleIds = _multipleIds;
+		staging._forbiddenEntries = _forbiddenEntries;
+		return staging;
+	}
+
+	private void publish(Vocabulary staging, boolean withSynonyms) {
+		synchronized (this) {
+			_withSynonyms = withSynonyms;
+			_entries._replaced = true;
+			_entries = staging._entries;
+			_modCount++;
+		}
+		for (VocabularyListener listener : _listeners) {
+			listener.vocabularyReloaded(this);
+		}
+	}
+
+	/**
+	 * Get a view of the current entries that isn't affected by a later
+	 * reload or load, e.g. to compile a parser from consistent entries. The
+	 * view shares the entries, loads and merges replace them instead of
+	 * changing them afterwards. Only changes made through
+	 * {@link #putEntry(String)} and {@link #removeEntry(String)} are seen by
+	 * the view, until the entries are replaced, see {@link #isReplaced()}.
+	 * 
+	 * @return The view, must not be changed.
+	 */
+	Vocabulary snapshot() {
+		Vocabulary view = newStaging();
+		view._withSynonyms = _withSynonyms;
+		Entries entries = _entries;
+		entries._shared = true;
+		view._entries = entries;
+		return view;
+	}
+
+	/**
+	 * Test whether the entries of this view were replaced by a reload, load
+	 * or compaction of the vocabulary, so they don't get later changes
+	 * anymore.
+	 * 
+	 * @return True for an outdated snapshot, false for the vocabulary itself.
+	 */
+	boolean isReplaced() {
+		return _entries._replaced;
+	}
+
+	/**
+	 * Add a listener that is notified after each reload.
+	 * 
+	 * @param listener
+	 *            The listener.
+	 */
+	public void addVocabularyListener(VocabularyListener listener) {
+		_listeners.addIfAbsent(listener);
+	}
+
+	/**
+	 * Remove a listener.
+	 * 
+	 * @param listener
+	 *            The listener.
+	 */
+	public void removeVocabularyListener(VocabularyListener listener) {
+		_listeners.remove(listener);
+	}
+
 	/**
 	 * Test whether some word is in the vocabulary and return the ID-word. For
 	 * single IDs.
@@ -186,15 +349,17 @@ public class Vocabulary {
 	 * @return The ID-word (e.g. "vw" for "volkswagen" in vocab "vw,volkswagen")
 	 */
 	public String getIDFromVocab(String s) {
-		if (_multipleIds) {
-			Vector<String> resVec = getIDsFromVocab(s);
-			if (resVec != null)
-				return resVec.firstElement();
+		Entries entries = _entries;
+		VocabularyDelta delta = entries._delta;
+		if (_multipleIds || delta != null) {
+			List<String> ids = getIDList(entries, s);
+			if (ids != null)
+				return ids.get(0);
 			else
 				return null;
 		}
 
-		return _vocabHashMap.get(s);
+		return entries._vocabHashMap.get(s);
 	}
 
 	/**
@@ -206,7 +371,252 @@ public class Vocabulary {
 	 * @return All possible IDs, (e.g. "2342" and "4234" for "300")
 	 */
 	public Vector<String> getIDsFromVocab(String s) {
-		return _vocabMultipleIDsHashMap.get(s);
+		List<String> ids = getIDListFromVocab(s);
+		return ids != null ? new Vector<String>(ids) : null;
+	}
+
+	/**
+	 * Same as {@link #getIDsFromVocab(String)} but returns a read only view
+	 * instead of copying the ids into a new vector.
+	 * 
+	 * @param s
+	 *            The String to test.
+	 * @return All possible IDs or null.
+	 */
+	public List<String> getIDListFromVocab(String s) {
+		return getIDList(_entries, s);
+	}
+
+	private List<String> getIDList(Entries entries, String s) {
+		List<String> ids = getBaseIDList(entries, s);
+		VocabularyDelta delta = entries._delta;
+		return delta != null ? delta.merge(s, ids) : ids;
+	}
+
+	private List<String> getBaseIDList(Entries entries, String s) {
+		if (_multipleIds) {
+			if (entries._idPostings == null)
+				return null;
+			return entries._idPostings.get(s);
+		}
+		if (entries._vocabHashMap == null)
+			return null;
+		String id = entries._vocabHashMap.get(s);
+		return id != null ? Collections.singletonList(id) : null;
+	}
+
+	/**
+	 * Get the ids of a lookup string without the changes made by
+	 * {@link #putEntry(String)} and {@link #removeEntry(String)}.
+	 * 
+	 * @param s
+	 *            The string.
+	 * @return The ids or null.
+	 */
+	List<String> getBaseIDList(String s) {
+		return getBaseIDList(_entries, s);
+	}
+
+	/**
+	 * Get all strings that can be looked up in the base entries of this
+	 * vocabulary, i.e. ids (if included in search) and synonyms. Changes made
+	 * since the last compaction are not included, see {@link #getDelta()}.
+	 * 
+	 * @return The lookup strings.
+	 */
+	Collection<String> getLookupKeys() {
+		Entries entries = _entries;
+		if (_multipleIds) {
+			if (entries._idPostings == null)
+				return Collections.emptySet();
+			return entries._idPostings.getKeys();
+		}
+		if (entries._vocabHashMap == null)
+			return Collections.emptySet();
+		return entries._vocabHashMap.keySet();
+	}
+
+	/**
+	 * Get a counter that changes whenever the entries of this vocabulary
+	 * change, used by the parser to detect outdated compiled data.
+	 * 
+	 * @return The modification count.
+	 */
+	int getModCount() {
+		return _modCount;
+	}
+
+	/**
+	 * Get a counter that changes whenever the entries or the delta of this
+	 * vocabulary change.
+	 * 
+	 * @return The change count.
+	 */
+	int getChangeCount() {
+		return _modCount + _deltaCount;
+	}
+
+	/**
+	 * Get the changes made since the last compaction.
+	 * 
+	 * @return The delta or null if there are no changes.
+	 */
+	VocabularyDelta getDelta() {
+		return _entries._delta;
+	}
+
+	/**
+	 * Add an entry or replace the entry with the same id. The change is
+	 * recorded in a small delta that lookups consult alongside the base
+	 * entries, so it's visible right away without rebuilding the lookup maps.
+	 * When the delta reaches the compaction threshold it is folded into new
+	 * base entries in the background, see {@link #compact()}.
+	 * 
+	 * @param element
+	 *            A line of the vocabulary, e.g. "vw,volkswagen,golf" for a
+	 *            vocabulary with synonyms.
+	 */
+	public void putEntry(String element) {
+		if (!StringUtil.isFilled(element))
+			return;
+		VocabEntry ve;
+		if (_withSynonyms) {
+			String[] elemDescription = StringUtil.stringToArray(element,
+					_vocabSeparator);
+			if (elemDescription == null)
+				return;
+			ve = new VocabEntry(elemDescription[0], elemDescription, true);
+		} else {
+			ve = new VocabEntry(element, null, false);
+		}
+		if (checkForbiddenEntries(ve))
+			return;
+		changeEntry(ve.get_key(), ve);
+	}
+
+	/**
+	 * Remove all entries with an id, see {@link #putEntry(String)}.
+	 * 
+	 * @param id
+	 *            The id, e.g. "vw".
+	 */
+	public void removeEntry(String id) {
+		changeEntry(id, null);
+	}
+
+	private void changeEntry(String id, VocabEntry ve) {
+		int deltaSize;
+		synchronized (this) {
+			Entries entries = _entries;
+			VocabularyDelta delta = entries._delta;
+			if (delta == null)
+				delta = new VocabularyDelta(_id, _withSynonyms,
+						_includeIDinSearch, _multipleIds);
+			delta = delta.with(id, ve);
+			entries._delta = delta;
+			// parsers compiled before the last compaction still use the old
+			// entries until they are compiled again
+			Entries previous = entries._previous;
+			if (previous != null)
+				previous._delta = previous._delta.with(id, ve);
+			_deltaCount++;
+			deltaSize = delta.size();
+		}
+		if (deltaSize >= _compactionThreshold
+				&& _compacting.compareAndSet(false, true)) {
+			ForkJoinPool.commonPool().execute(new Runnable() {
+				public void run() {
+					try {
+						compact();
+					} finally {
+						_compacting.set(false);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Fold the changes made by {@link #putEntry(String)} and
+	 * {@link #removeEntry(String)} into new base entries. The new entries are
+	 * built aside and published at once like by
+	 * {@link #reload(Vector, boolean)}, changes made meanwhile are kept in
+	 * the new delta.
+	 */
+	public void compact() {
+		Entries entries = _entries;
+		VocabularyDelta delta = entries._delta;
+		if (delta == null)
+			return;
+		Vocabulary staging = newStaging();
+		staging._withSynonyms = _withSynonyms;
+		staging.clearEntries(_withSynonyms);
+		// changes made meanwhile stay in the new delta
+		for (VocabEntry ve : getCurrentEntries(entries, delta)) {
+			if (!_withSynonyms) {
+				staging.addElementWithoutSynonyms(ve.get_key());
+			} else if (ve.get_synonyms() != null) {
+				staging.addElementWithSynonyms(ve.get_synonyms(), true);
+			} else {
+				staging.addElementWithSynonyms(
+						new String[] { ve.get_key() }, true);
+			}
+		}
+		staging.entriesChanged();
+		synchronized (this) {
+			// replaced by a reload meanwhile
+			if (_entries != entries)
+				return;
+			staging._entries._delta = entries._delta.without(delta);
+			staging._entries._previous = entries;
+			entries._replaced = true;
+			_entries = staging._entries;
+			_modCount++;
+		}
+		for (VocabularyListener listener : _listeners) {
+			listener.vocabularyReloaded(this);
+		}
+		// the parsers are compiled again, so the old entries needn't get the
+		// changes anymore and can be freed with the last parser using them
+		synchronized (this) {
+			staging._entries._previous = null;
+		}
+	}
+
+	/**
+	 * Set the number of changes after which the delta is compacted in the
+	 * background.
+	 * 
+	 * @param changes
+	 *            The number of changed entries.
+	 */
+	public void setCompactionThreshold(int changes) {
+		_compactionThreshold = changes;
+	}
+
+	/**
+	 * Get the base entries with the changes applied.
+	 */
+	private static Vector<VocabEntry> getCurrentEntries(Entries entries) {
+		return getCurrentEntries(entries, entries._delta);
+	}
+
+	/**
+	 * Get the base entries with the changes of a delta applied.
+	 */
+	private static Vector<VocabEntry> getCurrentEntries(Entries entries,
+			VocabularyDelta delta) {
+		if (delta == null)
+			return entries._vocab;
+		Vector<VocabEntry> vocab = new Vector<VocabEntry>();
+		if (entries._vocab != null) {
+			for (VocabEntry ve : entries._vocab) {
+				if (!delta.isChanged(ve.get_key()))
+					vocab.add(ve);
+			}
+		}
+		vocab.addAll(delta.getEntries());
+		return vocab;
 	}
 
 	/**
@@ -216,27 +626,143 @@ public class Vocabulary {
 	 * @return
 	 */
 	public Vector<String> getIDsForVocabSearch(String query) {
+		Entries entries = _entries;
 		Vector<String> retVec = new Vector<String>();
-		for (VocabEntry ve : _vocab) {
-			if (ve.isSynonym(query)) {
-				retVec.add(ve.get_key());
+		HashMap<String, int[]> synonymIndex = entries._synonymIndex;
+		if (synonymIndex == null)
+			synonymIndex = buildSynonymIndex(entries);
+		VocabularyDelta delta = entries._delta;
+		int[] positions = synonymIndex.get(query);
+		if (positions != null) {
+			for (int i = 1; i <= positions[0]; i++) {
+				String key = entries._vocab.elementAt(positions[i]).get_key();
+				if (delta == null || !delta.isChanged(key))
+					retVec.add(key);
+			}
+		}
+		if (delta != null) {
+			for (VocabEntry ve : delta.getEntries()) {
+				if (ve.isSynonym(query))
+					retVec.add(ve.get_key());
 			}
 		}
 		return retVec;
 	}
 
+	private static HashMap<String, int[]> buildSynonymIndex(Entries entries) {
+		HashMap<String, int[]> synonymIndex = new HashMap<String, int[]>();
+		Vector<VocabEntry> vocab = entries._vocab;
+		if (vocab != null) {
+			for (int pos = 0; pos < vocab.size(); pos++) {
+				indexSynonyms(synonymIndex, vocab.elementAt(pos), pos);
+			}
+		}
+		entries._synonymIndex = synonymIndex;
+		return synonymIndex;
+	}
+
+	/**
+	 * Add the synonyms of an entry to the synonym index.
+	 * 
+	 * @param synonymIndex
+	 *            The index.
+	 * @param ve
+	 *            The entry, or the synonyms merged into it.
+	 * @param pos
+	 *            The position of the entry in the vocabulary.
+	 */
+	private static void indexSynonyms(HashMap<String, int[]> synonymIndex,
+			VocabEntry ve, int pos) {
+		if (!ve.is_hasSynonyms()) {
+			indexSynonym(synonymIndex, ve.get_key(), pos);
+			return;
+		}
+		for (String synonym : ve.get_synonyms()) {
+			indexSynonym(synonymIndex, synonym, pos);
+		}
+	}
+
+	private static void indexSynonym(HashMap<String, int[]> synonymIndex,
+			String synonym, int pos) {
+		int[] positions = synonymIndex.get(synonym);
+		if (positions == null) {
+			synonymIndex.put(synonym, new int[] { 1, pos, 0 });
+			return;
+		}
+		int num = positions[0];
+		int insert = Arrays.binarySearch(positions, 1, num + 1, pos);
+		if (insert >= 0)
+			return;
+		insert = -insert - 1;
+		if (num + 1 == positions.length) {
+			positions = Arrays.copyOf(positions, positions.length * 2);
+			synonymIndex.put(synonym, positions);
+		}
+		System.arraycopy(positions, insert, positions, insert + 1, num + 1
+				- insert);
+		positions[insert] = pos;
+		positions[0] = num + 1;
+	}
+
 	public void loadVocabFromVectorWithoutSynonyms(Vector<String> elements) {
-		_vocab = new Vector<VocabEntry>();
-		_vocabHashMap = new HashMap<String, String>();
+		_withSynonyms = false;
+		clearEntries(false);
 		for (String element : elements) {
 			if (StringUtil.isFilled(element)) {
-				VocabEntry ie = new VocabEntry(element, null, false);
-				if (!checkForbiddenEntries(ie)) {
-					_vocab.add(ie);
-					_vocabHashMap.put(element, element);
-				}
+				addElementWithoutSynonyms(element);
 			}
 		}
+		entriesChanged();
+	}
+
+	/**
+	 * Remove all entries before loading new ones. The entries are replaced by
+	 * empty ones, so snapshots keep the old entries.
+	 * 
+	 * @param withSynonyms
+	 *            If the new entries have synonyms.
+	 */
+	void clearEntries(boolean withSynonyms) {
+		Entries entries = new Entries();
+		entries._vocab = new Vector<VocabEntry>();
+		if (withSynonyms && _multipleIds) {
+			entries._idPostings = new IDPostings();
+		} else {
+			entries._vocabHashMap = new HashMap<String, String>();
+		}
+		replaceEntries(entries);
+	}
+
+	/**
+	 * Make sure the entries can be changed in place. Entries shared with a
+	 * snapshot are copied and replaced by the copy first.
+	 */
+	private void ownEntries() {
+		Entries entries = _entries;
+		if (entries._shared)
+			replaceEntries(entries.copy());
+	}
+
+	private synchronized void replaceEntries(Entries entries) {
+		_entries._replaced = true;
+		_entries = entries;
+	}
+
+	/**
+	 * Add an entry without synonyms, call {@link #entriesChanged()} when
+	 * done.
+	 * 
+	 * @param element
+	 *            The entry, e.g. "red".
+	 */
+	void addElementWithoutSynonyms(String element) {
+		ownEntries();
+		Entries entries = _entries;
+		VocabEntry ie = new VocabEntry(element, null, false);
+		if (!checkForbiddenEntries(ie)) {
+			entries._vocab.add(ie);
+			entries._vocabHashMap.put(element, element);
+		}
 	}
 
 	public void loadVocabFromVectorWithSynonyms(Vector<String> elements) {
@@ -249,15 +775,53 @@ public class Vocabulary {
 
 	public void loadVocabFromVectorWithSynonyms(Vector<String> elements,
 			boolean initialVocab) {
+		// changes and compactions parse the lines the same way
+		_withSynonyms = true;
 		if (initialVocab) {
-			_vocab = new Vector<VocabEntry>();
-			if (_multipleIds) {
-				_vocabMultipleIDsHashMap = new HashMap<String, Vector>();
-			} else {
-				_vocabHashMap = new HashMap<String, String>();
-			}
+			clearEntries(true);
+		}
+		addElementsWithSynonyms(elements, initialVocab);
+		entriesChanged();
+	}
+
+	/**
+	 * Merge several supplements into this vocabulary at once, e.g. regional
+	 * additions to a base vocabulary. Entries with a key that is already
+	 * known get the new synonyms, other entries are added. Same as calling
+	 * {@link #addToVocabFromVectorWithSynonyms(Vector)} for each supplement,
+	 * but users of the vocabulary are notified only once.
+	 * 
+	 * @param supplements
+	 *            The lines of the supplements, in the order they are merged.
+	 */
+	public void addToVocabFromVectorsWithSynonyms(
+			Collection<Vector<String>> supplements) {
+		_withSynonyms = true;
+		for (Vector<String> elements : supplements) {
+			addElementsWithSynonyms(elements, false);
+		}
+		entriesChanged();
+	}
+
+	/**
+	 * Merge several supplement files into this vocabulary at once, see
+	 * {@link #addToVocabFromVectorsWithSynonyms(Collection)}.
+	 * 
+	 * @param filepaths
+	 *            The files, in the order they are merged.
+	 * @throws Exception
+	 */
+	public void addToVocabFromFilesWithSynonyms(String[] filepaths)
+			throws Exception {
+		Vector<Vector<String>> supplements = new Vector<Vector<String>>();
+		for (String filepath : filepaths) {
+			supplements.add(FileUtil.getFileLines(filepath));
 		}
-		String eName = "";
+		addToVocabFromVectorsWithSynonyms(supplements);
+	}
+
+	private void addElementsWithSynonyms(Vector<String> elements,
+			boolean initialVocab) {
 		String[] elemDescription;
 		try {
 			for (String element : elements) {
@@ -266,39 +830,7 @@ public class Vocabulary {
 							_vocabSeparator);
 					if (elemDescription == null)
 						continue;
-					if (_includeIDinSearch) {
-						String s = elemDescription[0];
-						if (_multipleIds) {
-							addToMultipleIDHashmap(s, s);
-						} else {
-							_vocabHashMap.put(s, s);
-						}
-					}
-					// if (elemDescription.length == 1)
-					// return;
-					int indexStart = 1;
-					eName = elemDescription[0];
-					VocabEntry ie = new VocabEntry(eName, elemDescription, true);
-					if (!checkForbiddenEntries(ie)) {
-						for (int i = indexStart; i < elemDescription.length; i++) {
-							String s = elemDescription[i];
-							if (_multipleIds) {
-								addToMultipleIDHashmap(s, eName);
-							} else {
-								_vocabHashMap.put(s, eName);
-							}
-						}
-						if (!initialVocab) {
-							VocabEntry orig = searchSameKey(ie);
-							if (orig != null) {
-								orig.addSynonyms(ie);
-							} else {
-								_vocab.add(ie);
-							}
-						} else {
-							_vocab.add(ie);
-						}
-					}
+					addElementWithSynonyms(elemDescription, initialVocab);
 				}
 			}
 		} catch (Exception e) {
@@ -306,39 +838,100 @@ public class Vocabulary {
 		}
 	}
 
-	private VocabEntry searchSameKey(VocabEntry ve) {
-		for (VocabEntry v : _vocab) {
-			if (v.isSameKey(ve))
-				return v;
+	/**
+	 * Add an entry with synonyms, call {@link #entriesChanged()} when done.
+	 * 
+	 * @param elemDescription
+	 *            The id followed by the synonyms.
+	 * @param initialVocab
+	 *            False to merge the synonyms into an entry with the same id.
+	 */
+	void addElementWithSynonyms(String[] elemDescription,
+			boolean initialVocab) {
+		ownEntries();
+		Entries entries = _entries;
+		if (_includeIDinSearch) {
+			String s = elemDescription[0];
+			if (_multipleIds) {
+				addToMultipleIDHashmap(s, s);
+			} else {
+				entries._vocabHashMap.put(s, s);
+			}
+		}
+		// if (elemDescription.length == 1)
+		// return;
+		int indexStart = 1;
+		String eName = elemDescription[0];
+		VocabEntry ie = new VocabEntry(eName, elemDescription, true);
+		if (!checkForbiddenEntries(ie)) {
+			for (int i = indexStart; i < elemDescription.length; i++) {
+				String s = elemDescription[i];
+				if (_multipleIds) {
+					addToMultipleIDHashmap(s, eName);
+				} else {
+					entries._vocabHashMap.put(s, eName);
+				}
+			}
+			int pos = initialVocab ? -1 : indexOfSameKey(ie);
+			if (pos >= 0) {
+				// a copy, the entry might be read by a snapshot
+				VocabEntry merged = new VocabEntry(entries._vocab
+						.elementAt(pos));
+				merged.addSynonyms(ie);
+				entries._vocab.setElementAt(merged, pos);
+			} else {
+				pos = entries._vocab.size();
+				entries._vocab.add(ie);
+				HashMap<String, Integer> keyIndex = entries._keyIndex;
+				if (keyIndex != null && !keyIndex.containsKey(eName))
+					keyIndex.put(eName, pos);
+			}
+			// kept up to date while adding instead of being rebuilt
+			HashMap<String, int[]> synonymIndex = entries._synonymIndex;
+			if (synonymIndex != null) {
+				indexSynonyms(synonymIndex, ie, pos);
+			}
+		}
+	}
+
+	private int indexOfSameKey(VocabEntry ve) {
+		Entries entries = _entries;
+		HashMap<String, Integer> keyIndex = entries._keyIndex;
+		if (keyIndex == null) {
+			Vector<VocabEntry> vocab = entries._vocab;
+			keyIndex = new HashMap<String, Integer>(vocab.size() * 2);
+			for (int i = 0; i < vocab.size(); i++) {
+				String key = vocab.elementAt(i).get_key();
+				if (!keyIndex.containsKey(key))
+					keyIndex.put(key, i);
+			}
+			entries._keyIndex = keyIndex;
 		}
-		return null;
+		Integer pos = keyIndex.get(ve.get_key());
+		return pos != null ? pos : -1;
 	}
 
 	private boolean checkForbiddenEntries(VocabEntry v) {
 		if (_forbiddenEntries == null)
 			return false;
-		for (String s : _forbiddenEntries) {
-			if (v.isSynonym(s))
+		if (!v.is_hasSynonyms())
+			return _forbiddenEntries.contains(v.get_key());
+		for (String s : v.get_synonyms()) {
+			if (_forbiddenEntries.contains(s))
 				return true;
 		}
 		return false;
 	}
 
 	private void addToMultipleIDHashmap(String key, String value) {
-		Vector<String> values = _vocabMultipleIDsHashMap.get(key);
-		if (values != null) {
-			values.add(value);
-			_vocabMultipleIDsHashMap.put(key, values);
-		} else {
-			values = new Vector<String>();
-			values.add(value);
-			_vocabMultipleIDsHashMap.put(key, values);
-		}
+		Entries entries = _entries;
+		entries._idPostings.add(key, value);
 	}
 
 	public Vector<String> getSynonyms() {
+		Vector<VocabEntry> vocab = getCurrentEntries(_entries);
 		Vector<String> ret = new Vector<String>();
-		for (VocabEntry ve : _vocab) {
+		for (VocabEntry ve : vocab) {
 			for (String s : ve.get_synonymsWithoutId()) {
 				ret.add(s);
 			}
@@ -348,32 +941,107 @@ public class Vocabulary {
 	}
 
 	public void printToFile(String filename) throws Exception {
+		Vector<VocabEntry> vocab = getCurrentEntries(_entries);
 		Vector<String> contents = new Vector<String>();
-		for (VocabEntry e : _vocab) {
+		for (VocabEntry e : vocab) {
 			contents.add(e.toVocabularyString(_vocabSeparator));
 		}
 		FileUtil.writeFileContent(filename, contents);
 	}
 
 	public void printToPrintStream(PrintStream out) throws Exception {
-		for (VocabEntry e : _vocab) {
+		Vector<VocabEntry> vocab = getCurrentEntries(_entries);
+		for (VocabEntry e : vocab) {
 			out.println(e.toVocabularyString(_vocabSeparator));
 		}
 	}
 
 	public String getRandomSynonym() {
-		int len = _vocab.size();
+		Vector<VocabEntry> vocab = getCurrentEntries(_entries);
+		int len = vocab.size();
 		int id = new Random().nextInt(len);
-		return _vocab.elementAt(id).getRandomSynonymWithouID();
+		return vocab.elementAt(id).getRandomSynonymWithouID();
 	}
 
-	private void fillVocabArray() {
-		_vocabArray = new String[_vocab.size()];
+	private static String[] fillVocabArray(Entries entries) {
+		String[] vocabArray = new String[entries._vocab.size()];
 		int i = 0;
-		for (VocabEntry ve : _vocab) {
-			_vocabArray[i++] = ve.get_key();
+		for (VocabEntry ve : entries._vocab) {
+			vocabArray[i++] = ve.get_key();
 		}
+		entries._vocabArray = vocabArray;
+		return vocabArray;
+	}
+
+	/**
+	 * Called after the entries changed.
+	 */
+	void entriesChanged() {
+		Entries entries = _entries;
+		if (entries._idPostings != null)
+			entries._idPostings.compact();
+		entries._vocabArray = null;
+		_modCount++;
+	}
+
+	/**
+	 * Get the entries, e.g. to write a snapshot.
+	 * 
+	 * @return The entries, might be null if nothing was loaded.
+	 */
+	Vector<VocabEntry> getEntries() {
+		Entries entries = _entries;
+		return entries._vocab;
+	}
+
+	/**
+	 * Get the lookup map for single ids.
+	 * 
+	 * @return The map from lookup string to id, might be null.
+	 */
+	HashMap<String, String> getIDMap() {
+		Entries entries = _entries;
+		return entries._vocabHashMap;
+	}
+
+	/**
+	 * Get the postings for multiple ids.
+	 * 
+	 * @return The ids of all lookup strings, might be null.
+	 */
+	IDPostings getIDPostings() {
+		Entries entries = _entries;
+		return entries._idPostings;
+	}
+
+	/**
+	 * Replace all entries and lookup maps, e.g. from a snapshot. The maps are
+	 * used as they are, not copied.
+	 * 
+	 * @param vocab
+	 *            The entries.
+	 * @param idMap
+	 *            The lookup map for single ids, might be null.
+	 * @param idPostings
+	 *            The postings for multiple ids, might be null.
+	 */
+	void restoreEntries(Vector<VocabEntry> vocab, HashMap<String, String> idMap,
+			IDPostings idPostings) {
+		Entries entries = new Entries();
+		entries._vocab = vocab;
+		entries._vocabHashMap = idMap;
+		entries._idPostings = idPostings;
+		replaceEntries(entries);
+		entriesChanged();
+	}
 
+	/**
+	 * Get the string that separates id and synonyms in the vocabulary.
+	 * 
+	 * @return The separator.
+	 */
+	String getVocabSeparator() {
+		return _vocabSeparator;
 	}
 
 	public boolean is_withSynonyms() {
@@ -383,4 +1051,61 @@ public class Vocabulary {
 	public void set_withSynonyms(boolean _withSynonyms) {
 		this._withSynonyms = _withSynonyms;
 	}
+
+	/**
+	 * The entries and the lookup maps and indexes built from them. Entries
+	 * shared with a snapshot are only changed through their delta, the
+	 * vocabulary replaces them to load or merge entries.
+	 */
+	private static class Entries {
+		private Vector<VocabEntry> _vocab;
+		private HashMap<String, String> _vocabHashMap;
+		private IDPostings _idPostings;
+		private volatile String[] _vocabArray = null;
+		/**
+		 * Maps each key to the position of its first entry, used to merge
+		 * entries. Built on the first merge.
+		 */
+		private HashMap<String, Integer> _keyIndex = null;
+		/**
+		 * Maps every synonym to the positions of the entries that contain it,
+		 * built on the first exhaustive search. Each array holds the number
+		 * of positions first, followed by the ascending positions.
+		 */
+		private volatile HashMap<String, int[]> _synonymIndex = null;
+		/**
+		 * The changes since the entries were loaded or compacted.
+		 */
+		private volatile VocabularyDelta _delta = null;
+		/**
+		 * The entries replaced by the last compaction, they get the later
+		 * changes too until the listeners compiled their parsers again.
+		 */
+		private Entries _previous = null;
+		/**
+		 * Set when these entries were replaced by a reload, load or
+		 * compaction.
+		 */
+		private volatile boolean _replaced = false;
+		/**
+		 * Set when a snapshot uses these entries.
+		 */
+		private volatile boolean _shared = false;
+
+		/**
+		 * Copy the entries and lookup maps to change them, the indexes are
+		 * built again when needed.
+		 */
+		Entries copy() {
+			Entries copy = new Entries();
+			if (_vocab != null)
+				copy._vocab = new Vector<VocabEntry>(_vocab);
+			if (_vocabHashMap != null)
+				copy._vocabHashMap = new HashMap<String, String>(_vocabHashMap);
+			if (_idPostings != null)
+				copy._idPostings = _idPostings.copy();
+			copy._delta = _delta;
+			return copy;
+		}
+	}
 }
@@ -0,0 +1,513 @@
+package com.tlabs.rootvole;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.felix.util.StringUtil;
+import com.tlabs.rootvole.PostingsIndex.Posting;
+
+/**
+ * The entries of a vocabulary that were added, replaced or removed since it
+ * was loaded or compacted, see {@link Vocabulary#putEntry(String)}. Lookups
+ * consult the delta alongside the base entries: ids of changed entries are
+ * dropped from the base results and the ids of the changed entries are
+ * added. A delta is immutable, each change creates a new one, so it can be
+ * read without locking.
+ * 
+ * The changes are kept in a log that the new delta shares with the one it
+ * was made from, a delta sees the first changes of the log up to its own.
+ * So a change only appends to the log and its lookup table instead of
+ * copying all changes. Changes that were replaced by later ones are dropped
+ * when they make up half of the log.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+class VocabularyDelta implements SpanLookup {
+	private final String _vocabId;
+	private final boolean _withSynonyms, _includeIDinSearch, _multipleIds;
+	private final ChangeLog _log;
+	/**
+	 * The number of changes of the log this delta sees, the number of
+	 * changed ids and the words of the longest string of the changes.
+	 */
+	private final int _num, _size, _maxWordNum;
+
+	/**
+	 * Constructor, creates an empty delta.
+	 * 
+	 * @param vocabId
+	 *            The id of the vocabulary.
+	 * @param withSynonyms
+	 *            If the entries have synonyms.
+	 * @param includeIDinSearch
+	 *            If the ids are lookup strings.
+	 * @param multipleIds
+	 *            If a string can have several ids.
+	 */
+	VocabularyDelta(String vocabId, boolean withSynonyms,
+			boolean includeIDinSearch, boolean multipleIds) {
+		this(vocabId, withSynonyms, includeIDinSearch, multipleIds,
+				new ChangeLog(), 0, 0, 0);
+	}
+
+	private VocabularyDelta(String vocabId, boolean withSynonyms,
+			boolean includeIDinSearch, boolean multipleIds, ChangeLog log,
+			int num, int size, int maxWordNum) {
+		_vocabId = vocabId;
+		_withSynonyms = withSynonyms;
+		_includeIDinSearch = includeIDinSearch;
+		_multipleIds = multipleIds;
+		_log = log;
+		_num = num;
+		_size = size;
+		_maxWordNum = maxWordNum;
+	}
+
+	/**
+	 * Get the lookup strings of a changed entry.
+	 */
+	private String[] getLookupStrings(String id, VocabEntry entry) {
+		if (entry == null)
+			return new String[0];
+		String[] synonyms = entry.get_synonyms();
+		if (!_withSynonyms || synonyms == null)
+			return new String[] { id };
+		Vector<String> strings = new Vector<String>(synonyms.length);
+		if (_includeIDinSearch)
+			strings.add(id);
+		for (int i = 1; i < synonyms.length; i++) {
+			strings.add(synonyms[i]);
+		}
+		return strings.toArray(new String[strings.size()]);
+	}
+
+	/**
+	 * Get a delta with one more change.
+	 * 
+	 * @param id
+	 *            The id of the entry.
+	 * @param entry
+	 *            The new entry or null to remove it.
+	 * @return The new delta.
+	 */
+	VocabularyDelta with(String id, VocabEntry entry) {
+		String[] strings = getLookupStrings(id, entry);
+		int wordNum = getMaxWordNum(strings);
+		int replaced = isChanged(id) ? getCurrent(id) : -1;
+		int size = replaced < 0 ? _size + 1 : _size;
+		int maxWordNum = Math.max(_maxWordNum, wordNum);
+		// the longest string might be one of the replaced change
+		if (replaced >= 0 && wordNum < _maxWordNum
+				&& _log.getRecords()._wordNums[replaced] == _maxWordNum)
+			maxWordNum = Math.max(wordNum, getMaxWordNum(replaced));
+		Posting posting = new Posting(0, _vocabId, id);
+		// the replaced changes are dropped when they make up half the log
+		if (_num < 2 * _size + 16
+				&& _log.append(_num, id, entry, posting, strings, wordNum))
+			return new VocabularyDelta(_vocabId, _withSynonyms,
+					_includeIDinSearch, _multipleIds, _log, _num + 1, size,
+					maxWordNum);
+		// another delta was made from this one already
+		return copy().with(id, entry);
+	}
+
+	private static int getMaxWordNum(String[] strings) {
+		int maxWordNum = 0;
+		for (String s : strings) {
+			String[] words = StringUtil.stringToArray(s);
+			if (words != null && words.length > maxWordNum)
+				maxWordNum = words.length;
+		}
+		return maxWordNum;
+	}
+
+	/**
+	 * Get the words of the longest string of all current changes but one.
+	 */
+	private int getMaxWordNum(int except) {
+		Records records = _log.getRecords();
+		int maxWordNum = 0;
+		for (int i = 0; i < _num; i++) {
+			if (i != except && isCurrent(records, i))
+				maxWordNum = Math.max(maxWordNum, records._wordNums[i]);
+		}
+		return maxWordNum;
+	}
+
+	/**
+	 * Copy the current changes to a new log.
+	 */
+	private VocabularyDelta copy() {
+		VocabularyDelta copy = new VocabularyDelta(_vocabId, _withSynonyms,
+				_includeIDinSearch, _multipleIds);
+		Records records = _log.getRecords();
+		for (int i = 0; i < _num; i++) {
+			if (isCurrent(records, i))
+				copy = copy.with(records._ids[i], records._entries[i]);
+		}
+		return copy;
+	}
+
+	/**
+	 * Test whether a change of the log is seen by this delta and not
+	 * replaced by a later one it sees.
+	 */
+	private boolean isCurrent(Records records, int i) {
+		return i < _num && records._replacedBy[i] >= _num;
+	}
+
+	/**
+	 * Get the changes that are not part of an older delta, i.e. the ones
+	 * made while the older delta was compacted.
+	 * 
+	 * @param compacted
+	 *            The older delta.
+	 * @return The newer changes or null if there are none.
+	 */
+	VocabularyDelta without(VocabularyDelta compacted) {
+		VocabularyDelta changes = new VocabularyDelta(_vocabId,
+				_withSynonyms, _includeIDinSearch, _multipleIds);
+		Records records = _log.getRecords();
+		for (int i = 0; i < _num; i++) {
+			if (!isCurrent(records, i))
+				continue;
+			String id = records._ids[i];
+			if (!compacted.isChanged(id)
+					|| compacted.getEntry(id) != records._entries[i])
+				changes = changes.with(id, records._entries[i]);
+		}
+		if (changes.size() == 0)
+			return null;
+		return changes;
+	}
+
+	/**
+	 * Get the entry of a changed id.
+	 */
+	private VocabEntry getEntry(String id) {
+		return _log.getRecords()._entries[getCurrent(id)];
+	}
+
+	/**
+	 * Get the position of the current change of a changed id.
+	 */
+	private int getCurrent(String id) {
+		Records records = _log.getRecords();
+		int i = _log.getFirst(id);
+		while (records._replacedBy[i] < _num) {
+			i = records._replacedBy[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Test whether an entry was changed or removed, its ids in the base
+	 * entries are outdated.
+	 * 
+	 * @param id
+	 *            The id of the entry.
+	 * @return True if the entry was changed.
+	 */
+	boolean isChanged(String id) {
+		return _log.getFirst(id) < _num;
+	}
+
+	/**
+	 * Get the postings of a lookup string, the vocabulary index is 0.
+	 * 
+	 * @param s
+	 *            The string.
+	 * @param hash
+	 *            Its hash code.
+	 * @return The postings or null.
+	 */
+	Posting[] lookup(CharSequence s, int hash) {
+		if (_num == 0)
+			return null;
+		Records records = _log.getRecords();
+		Postings postings = _log.lookup(s, hash);
+		if (postings == null)
+			return null;
+		int[] changes = postings._changes;
+		int num = 0, last = -1;
+		for (int k = 0; k < changes.length; k++) {
+			if (isCurrent(records, changes[k])) {
+				num++;
+				last = k;
+			}
+		}
+		if (num == 0)
+			return null;
+		// later entries win for single ids, like in the base maps
+		if (!_multipleIds)
+			return new Posting[] { postings._postings[last] };
+		if (num == changes.length)
+			return postings._postings;
+		Posting[] ret = new Posting[num];
+		num = 0;
+		for (int k = 0; k < changes.length; k++) {
+			if (isCurrent(records, changes[k]))
+				ret[num++] = postings._postings[k];
+		}
+		return ret;
+	}
+
+	public List<String> lookupIDs(CharSequence span, int hash) {
+		Posting[] postings = lookup(span, hash);
+		if (postings == null)
+			return null;
+		List<String> ids = new ArrayList<String>(postings.length);
+		for (Posting posting : postings) {
+			ids.add(posting.getId());
+		}
+		return ids;
+	}
+
+	/**
+	 * Merge the ids of a lookup string in the base entries with the delta.
+	 * 
+	 * @param s
+	 *            The string.
+	 * @param baseIDs
+	 *            The ids in the base entries, might be null.
+	 * @return The ids or null if there are none.
+	 */
+	List<String> merge(String s, List<String> baseIDs) {
+		Posting[] postings = lookup(s, s.hashCode());
+		List<String> ids = new ArrayList<String>();
+		if (baseIDs != null && (_multipleIds || postings == null)) {
+			for (String id : baseIDs) {
+				if (!isChanged(id))
+					ids.add(id);
+			}
+		}
+		if (postings != null) {
+			for (Posting posting : postings) {
+				ids.add(posting.getId());
+			}
+		}
+		return ids.isEmpty() ? null : ids;
+	}
+
+	/**
+	 * Get the new entries, in the order they were changed.
+	 * 
+	 * @return The entries without the removed ones.
+	 */
+	Collection<VocabEntry> getEntries() {
+		Vector<VocabEntry> entries = new Vector<VocabEntry>();
+		Records records = _log.getRecords();
+		for (int i = 0; i < _num; i++) {
+			if (isCurrent(records, i) && records._entries[i] != null)
+				entries.add(records._entries[i]);
+		}
+		return entries;
+	}
+
+	public int getMaxWordNum() {
+		return _maxWordNum;
+	}
+
+	/**
+	 * Get the number of changes.
+	 * 
+	 * @return The number of changed or removed entries.
+	 */
+	int size() {
+		return _size;
+	}
+
+	/**
+	 * The changes of a log. A change is written before the delta that sees
+	 * it is published, so the arrays are only changed after the changes a
+	 * delta sees, except for replacedBy that a later change sets from
+	 * {@link Integer#MAX_VALUE} to its own position, which all deltas that
+	 * don't see the later change treat alike.
+	 */
+	private static class Records {
+		private final String[] _ids;
+		private final VocabEntry[] _entries;
+		private final int[] _replacedBy, _wordNums;
+
+		Records(int capacity) {
+			_ids = new String[capacity];
+			_entries = new VocabEntry[capacity];
+			_replacedBy = new int[capacity];
+			_wordNums = new int[capacity];
+		}
+	}
+
+	/**
+	 * The postings of a lookup string and the positions of their changes in
+	 * the log, replaced by a longer copy when a change adds one.
+	 */
+	private static class Postings {
+		private final int[] _changes;
+		private final Posting[] _postings;
+
+		Postings(int[] changes, Posting[] postings) {
+			_changes = changes;
+			_postings = postings;
+		}
+	}
+
+	/**
+	 * An open addressing table of the lookup strings of a log. A string is
+	 * added before the delta that sees it is published, so a delta that
+	 * finds a string without postings or with another hash code doesn't see
+	 * it anyway.
+	 */
+	private static class Table {
+		private final String[] _keys;
+		private final int[] _hashes;
+		private final Postings[] _postings;
+
+		Table(int len) {
+			_keys = new String[len];
+			_hashes = new int[len];
+			_postings = new Postings[len];
+		}
+	}
+
+	/**
+	 * The changes shared by a delta and the deltas made from it, see
+	 * {@link VocabularyDelta#with(String, VocabEntry)}. Changes are only
+	 * appended, the records and the table are replaced by larger copies when
+	 * they are full.
+	 */
+	private static class ChangeLog {
+		private volatile Records _records = new Records(16);
+		private volatile Table _table = new Table(16);
+		/**
+		 * The position of the first change of an id.
+		 */
+		private final ConcurrentHashMap<String, Integer> _first =
+				new ConcurrentHashMap<String, Integer>();
+		/**
+		 * The position of the last change of an id, only used to append.
+		 */
+		private final HashMap<String, Integer> _last =
+				new HashMap<String, Integer>();
+		private int _num = 0, _keyNum = 0;
+
+		Records getRecords() {
+			return _records;
+		}
+
+		int getFirst(String id) {
+			Integer first = _first.get(id);
+			return first != null ? first : Integer.MAX_VALUE;
+		}
+
+		/**
+		 * Append a change if the delta it is made from sees all changes.
+		 * 
+		 * @param num
+		 *            The number of changes the delta sees.
+		 * @return False if the log has more changes.
+		 */
+		synchronized boolean append(int num, String id, VocabEntry entry,
+				Posting posting, String[] strings, int wordNum) {
+			if (num != _num)
+				return false;
+			Records records = _records;
+			if (_num == records._ids.length) {
+				Records larger = new Records(_num * 2);
+				System.arraycopy(records._ids, 0, larger._ids, 0, _num);
+				System.arraycopy(records._entries, 0, larger._entries, 0,
+						_num);
+				System.arraycopy(records._replacedBy, 0, larger._replacedBy,
+						0, _num);
+				System.arraycopy(records._wordNums, 0, larger._wordNums, 0,
+						_num);
+				records = larger;
+			}
+			records._ids[_num] = id;
+			records._entries[_num] = entry;
+			records._replacedBy[_num] = Integer.MAX_VALUE;
+			records._wordNums[_num] = wordNum;
+			_records = records;
+			Integer last = _last.put(id, _num);
+			if (last != null)
+				records._replacedBy[last] = _num;
+			else
+				_first.put(id, _num);
+			for (String s : strings) {
+				add(s, posting);
+			}
+			_num++;
+			return true;
+		}
+
+		private void add(String key, Posting posting) {
+			Table table = _table;
+			int hash = key.hashCode();
+			int slot = slot(hash, table._keys.length);
+			while (table._keys[slot] != null) {
+				if (table._hashes[slot] == hash
+						&& table._keys[slot].equals(key)) {
+					Postings old = table._postings[slot];
+					int len = old._changes.length;
+					int[] changes = new int[len + 1];
+					Posting[] postings = new Posting[len + 1];
+					System.arraycopy(old._changes, 0, changes, 0, len);
+					System.arraycopy(old._postings, 0, postings, 0, len);
+					changes[len] = _num;
+					postings[len] = posting;
+					table._postings[slot] = new Postings(changes, postings);
+					return;
+				}
+				slot = (slot + 1) & (table._keys.length - 1);
+			}
+			table._hashes[slot] = hash;
+			table._postings[slot] = new Postings(new int[] { _num },
+					new Posting[] { posting });
+			table._keys[slot] = key;
+			if (++_keyNum * 2 > table._keys.length)
+				grow(table);
+		}
+
+		private void grow(Table old) {
+			int len = old._keys.length * 2;
+			Table table = new Table(len);
+			for (int i = 0; i < old._keys.length; i++) {
+				if (old._keys[i] != null) {
+					int slot = slot(old._hashes[i], len);
+					while (table._keys[slot] != null) {
+						slot = (slot + 1) & (len - 1);
+					}
+					table._keys[slot] = old._keys[i];
+					table._hashes[slot] = old._hashes[i];
+					table._postings[slot] = old._postings[i];
+				}
+			}
+			_table = table;
+		}
+
+		private static int slot(int hash, int len) {
+			return (hash ^ (hash >>> 16)) & (len - 1);
+		}
+
+		/**
+		 * Get the postings of a lookup string of all changes.
+		 */
+		Postings lookup(CharSequence s, int hash) {
+			Table table = _table;
+			int len = table._keys.length;
+			int slot = slot(hash, len);
+			String key;
+			while ((key = table._keys[slot]) != null) {
+				if (table._hashes[slot] == hash
+						&& PostingsIndex.contentEquals(s, key))
+					return table._postings[slot];
+				slot = (slot + 1) & (len - 1);
+			}
+			return null;
+		}
+	}
+}
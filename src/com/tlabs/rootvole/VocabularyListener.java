@@ -0,0 +1,19 @@
+package com.tlabs.rootvole;
+
+/**
+ * Notified when a vocabulary was replaced by
+ * {@link Vocabulary#reload(java.util.Vector, boolean)}, e.g. by a parser
+ * that compiles a new snapshot right away.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public interface VocabularyListener {
+	/**
+	 * Called after the new entries were published.
+	 * 
+	 * @param vocabulary
+	 *            The reloaded vocabulary.
+	 */
+	void vocabularyReloaded(Vocabulary vocabulary);
+}
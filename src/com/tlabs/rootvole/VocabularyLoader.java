@@ -0,0 +1,215 @@
+package com.tlabs.rootvole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.felix.util.StringUtil;
+
+/**
+ * Loads large vocabulary files without reading all lines into memory first.
+ * The file is split into chunks that end at line breaks, the chunks are
+ * memory mapped, decoded and split into entries in parallel and then added
+ * to the vocabulary one after the other in file order, so the result is the
+ * same as with {@link Vocabulary#loadVocabFromFile(String, boolean)}. Only a
+ * few chunks are held in memory at a time.
+ * 
+ * The charset must encode the line break as the single byte '\n', like
+ * UTF-8 or ISO-8859-1 do.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class VocabularyLoader {
+	/**
+	 * Default number of bytes of a chunk.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+	private final Charset _charset;
+	private final ForkJoinPool _pool;
+	private final int _chunkSize;
+
+	/**
+	 * Constructor, reads UTF-8 in the common fork join pool.
+	 */
+	public VocabularyLoader() {
+		this(Charset.forName("UTF-8"), ForkJoinPool.commonPool(),
+				DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param charset
+	 *            The charset of the files.
+	 * @param pool
+	 *            The pool that parses the chunks.
+	 * @param chunkSize
+	 *            The number of bytes of a chunk, chunks are extended to the
+	 *            next line break.
+	 */
+	public VocabularyLoader(Charset charset, ForkJoinPool pool, int chunkSize) {
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("chunk size must be positive: "
+					+ chunkSize);
+		_charset = charset;
+		_pool = pool;
+		_chunkSize = chunkSize;
+	}
+
+	/**
+	 * Load a vocabulary from a file, replacing all entries.
+	 * 
+	 * @param vocab
+	 *            The vocabulary.
+	 * @param filepath
+	 *            The file.
+	 * @param withSynonyms
+	 *            If the lines contain synonyms.
+	 * @throws Exception
+	 */
+	public void load(Vocabulary vocab, String filepath, boolean withSynonyms)
+			throws Exception {
+		vocab.set_withSynonyms(withSynonyms);
+		vocab.clearEntries(withSynonyms);
+		read(vocab, filepath, withSynonyms, true);
+	}
+
+	/**
+	 * Merge a supplement file into a vocabulary, see
+	 * {@link Vocabulary#addToVocabFromVectorWithSynonyms(Vector)}.
+	 * 
+	 * @param vocab
+	 *            The vocabulary.
+	 * @param filepath
+	 *            The file, lines with synonyms.
+	 * @throws Exception
+	 */
+	public void add(Vocabulary vocab, String filepath) throws Exception {
+		read(vocab, filepath, true, false);
+	}
+
+	private void read(Vocabulary vocab, String filepath, boolean withSynonyms,
+			boolean initialVocab) throws Exception {
+		RandomAccessFile file = new RandomAccessFile(new File(filepath), "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			String separator = vocab.getVocabSeparator();
+			ArrayDeque<ForkJoinTask<Vector<String[]>>> pending =
+					new ArrayDeque<ForkJoinTask<Vector<String[]>>>();
+			int window = _pool.getParallelism() + 1;
+			long start = 0;
+			try {
+				while (start < size || !pending.isEmpty()) {
+					while (start < size && pending.size() < window) {
+						long end = lineEnd(channel, start + _chunkSize, size);
+						pending.add(_pool.submit(new ChunkTask(channel, start,
+								end, separator, withSynonyms)));
+						start = end;
+					}
+					// chunks are added in file order
+					for (String[] element : pending.poll().join()) {
+						if (withSynonyms) {
+							vocab.addElementWithSynonyms(element, initialVocab);
+						} else {
+							vocab.addElementWithoutSynonyms(element[0]);
+						}
+					}
+				}
+			} finally {
+				for (ForkJoinTask<Vector<String[]>> task : pending) {
+					task.cancel(false);
+				}
+				vocab.entriesChanged();
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Find the end of the chunk, i.e. the position after the next line break.
+	 */
+	private static long lineEnd(FileChannel channel, long pos, long size)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		while (pos < size) {
+			buffer.clear();
+			int read = channel.read(buffer, pos);
+			if (read <= 0)
+				break;
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == '\n')
+					return pos + i + 1;
+			}
+			pos += read;
+		}
+		return size;
+	}
+
+	/**
+	 * Decodes a chunk and splits it into entries.
+	 */
+	private class ChunkTask implements Callable<Vector<String[]>> {
+		private final FileChannel _channel;
+		private final long _start, _end;
+		private final String _separator;
+		private final boolean _withSynonyms;
+
+		ChunkTask(FileChannel channel, long start, long end, String separator,
+				boolean withSynonyms) {
+			_channel = channel;
+			_start = start;
+			_end = end;
+			_separator = separator;
+			_withSynonyms = withSynonyms;
+		}
+
+		public Vector<String[]> call() throws Exception {
+			MappedByteBuffer bytes = _channel.map(FileChannel.MapMode.READ_ONLY,
+					_start, _end - _start);
+			CharsetDecoder decoder = _charset.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			CharBuffer chars = decoder.decode(bytes);
+			Vector<String[]> elements = new Vector<String[]>();
+			int lineStart = 0, len = chars.length();
+			while (lineStart < len) {
+				int lineEnd = lineStart;
+				while (lineEnd < len && chars.get(lineEnd) != '\n') {
+					lineEnd++;
+				}
+				int next = lineEnd + 1;
+				if (lineEnd > lineStart && chars.get(lineEnd - 1) == '\r')
+					lineEnd--;
+				String element = chars.subSequence(lineStart, lineEnd)
+						.toString();
+				lineStart = next;
+				if (!StringUtil.isFilled(element))
+					continue;
+				if (_withSynonyms) {
+					String[] elemDescription = StringUtil.stringToArray(
+							element, _separator);
+					if (elemDescription != null)
+						elements.add(elemDescription);
+				} else {
+					elements.add(new String[] { element });
+				}
+			}
+			return elements;
+		}
+	}
+}
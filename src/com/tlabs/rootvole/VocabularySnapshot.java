@@ -0,0 +1,469 @@
+package com.tlabs.rootvole;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes vocabularies to a binary snapshot file and loads them back without
+ * splitting any lines, e.g. to start a service faster than from the text
+ * vocabularies.
+ * 
+ * The file starts with a magic number and the format version, followed by a
+ * table of all distinct strings, the vocabularies (settings, entries and
+ * lookup maps as indexes into the string table) and a CRC32 checksum of
+ * everything after the version. The file is memory mapped for loading, in
+ * segments for files larger than 2 GB. Forbidden entries are not stored,
+ * they were already applied when the vocabularies were loaded.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class VocabularySnapshot {
+	/**
+	 * The first four bytes of a snapshot, "RVVS".
+	 */
+	public static final int MAGIC = 0x52565653;
+	/**
+	 * The format version written by this class.
+	 */
+	public static final int VERSION = 1;
+	private static final int FLAG_WITH_SYNONYMS = 1, FLAG_ID_IN_SEARCH = 2,
+			FLAG_MULTIPLE_IDS = 4, FLAG_HAS_SYNONYMS = 1;
+	private static final int HEADER_SIZE = 8, TRAILER_SIZE = 8;
+	private static final int SEGMENT_SIZE = 256 * 1024 * 1024;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private VocabularySnapshot() {
+	}
+
+	/**
+	 * Write a snapshot of one vocabulary.
+	 * 
+	 * @param vocab
+	 *            The vocabulary.
+	 * @param filepath
+	 *            The snapshot file, overwritten if it exists.
+	 * @throws Exception
+	 */
+	public static void write(Vocabulary vocab, String filepath)
+			throws Exception {
+		Vector<Vocabulary> vocabs = new Vector<Vocabulary>();
+		vocabs.add(vocab);
+		write(vocabs, null, filepath);
+	}
+
+	/**
+	 * Write a snapshot of all vocabularies and the stopwords of a parser.
+	 * 
+	 * @param parser
+	 *            The parser.
+	 * @param filepath
+	 *            The snapshot file, overwritten if it exists.
+	 * @throws Exception
+	 */
+	public static void write(Parser parser, String filepath) throws Exception {
+		Vector<Vocabulary> vocabs = parser.getVocabularies();
+		write(vocabs != null ? vocabs : new Vector<Vocabulary>(),
+				parser.getStopwords(), filepath);
+	}
+
+	/**
+	 * Read a snapshot of one vocabulary.
+	 * 
+	 * @param filepath
+	 *            The snapshot file.
+	 * @return The first vocabulary of the snapshot, null if there is none.
+	 * @throws Exception
+	 *             If the file is not a valid snapshot.
+	 */
+	public static Vocabulary read(String filepath) throws Exception {
+		return read(filepath, SEGMENT_SIZE);
+	}
+
+	/**
+	 * Read a snapshot through smaller segments, e.g. to test values that
+	 * cross the end of a segment without writing gigabytes.
+	 * 
+	 * @param segmentSize
+	 *            The number of bytes mapped at once.
+	 */
+	static Vocabulary read(String filepath, int segmentSize) throws Exception {
+		Vector<Vocabulary> vocabs = new Vector<Vocabulary>();
+		read(filepath, vocabs, segmentSize);
+		return vocabs.isEmpty() ? null : vocabs.firstElement();
+	}
+
+	/**
+	 * Add all vocabularies of a snapshot to a parser and set its stopwords if
+	 * the snapshot contains them.
+	 * 
+	 * @param parser
+	 *            The parser.
+	 * @param filepath
+	 *            The snapshot file.
+	 * @throws Exception
+	 *             If the file is not a valid snapshot.
+	 */
+	public static void load(Parser parser, String filepath) throws Exception {
+		Vector<Vocabulary> vocabs = new Vector<Vocabulary>();
+		Vocabulary stopwords = read(filepath, vocabs, SEGMENT_SIZE);
+		if (stopwords != null)
+			parser.setStopwords(stopwords);
+		for (Vocabulary vocab : vocabs) {
+			parser.addVocabulary(vocab);
+		}
+	}
+
+	private static void write(Vector<Vocabulary> vocabs,
+			Vocabulary stopwords, String filepath) throws Exception {
+		Vector<Vocabulary> all = new Vector<Vocabulary>();
+		if (stopwords != null)
+			all.add(stopwords);
+		all.addAll(vocabs);
+		// both passes see the same entries, including recent changes
+		for (int i = 0; i < all.size(); i++) {
+			all.elementAt(i).compact();
+			all.setElementAt(all.elementAt(i).snapshot(), i);
+		}
+		// first pass: the string table
+		StringTable strings = new StringTable();
+		for (Vocabulary vocab : all) {
+			collectStrings(vocab, strings);
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(filepath), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			CRC32 crc = new CRC32();
+			DataOutputStream payload = new DataOutputStream(
+					new CheckedOutputStream(out, crc));
+			payload.writeInt(strings.size());
+			for (String s : strings.getStrings()) {
+				byte[] bytes = s.getBytes(UTF8);
+				payload.writeInt(bytes.length);
+				payload.write(bytes);
+			}
+			// second pass: the vocabularies
+			payload.writeInt(stopwords != null ? 1 : 0);
+			payload.writeInt(all.size());
+			for (Vocabulary vocab : all) {
+				writeVocabulary(vocab, strings, payload);
+			}
+			payload.flush();
+			out.writeLong(crc.getValue());
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void collectStrings(Vocabulary vocab, StringTable strings) {
+		strings.add(vocab.getId());
+		strings.add(vocab.getVocabSeparator());
+		Vector<VocabEntry> entries = vocab.getEntries();
+		if (entries != null) {
+			for (VocabEntry entry : entries) {
+				strings.add(entry.get_key());
+				if (entry.get_synonyms() != null) {
+					for (String synonym : entry.get_synonyms()) {
+						strings.add(synonym);
+					}
+				}
+			}
+		}
+		HashMap<String, String> idMap = vocab.getIDMap();
+		if (idMap != null) {
+			for (Map.Entry<String, String> e : idMap.entrySet()) {
+				strings.add(e.getKey());
+				strings.add(e.getValue());
+			}
+		}
+		IDPostings idPostings = vocab.getIDPostings();
+		if (idPostings != null) {
+			for (String key : idPostings.getKeys()) {
+				strings.add(key);
+				for (String id : idPostings.get(key)) {
+					strings.add(id);
+				}
+			}
+		}
+	}
+
+	private static void writeVocabulary(Vocabulary vocab, StringTable strings,
+			DataOutputStream out) throws IOException {
+		out.writeInt(strings.indexOf(vocab.getId()));
+		out.writeInt(strings.indexOf(vocab.getVocabSeparator()));
+		int flags = 0;
+		if (vocab.is_withSynonyms())
+			flags |= FLAG_WITH_SYNONYMS;
+		if (vocab.is_includeIDinSearch())
+			flags |= FLAG_ID_IN_SEARCH;
+		if (vocab.isMultiplIDs())
+			flags |= FLAG_MULTIPLE_IDS;
+		out.writeInt(flags);
+		Vector<VocabEntry> entries = vocab.getEntries();
+		if (entries == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(entries.size());
+			for (VocabEntry entry : entries) {
+				out.writeInt(strings.indexOf(entry.get_key()));
+				out.writeInt(entry.is_hasSynonyms() ? FLAG_HAS_SYNONYMS : 0);
+				String[] synonyms = entry.get_synonyms();
+				if (synonyms == null) {
+					out.writeInt(-1);
+				} else {
+					out.writeInt(synonyms.length);
+					for (String synonym : synonyms) {
+						out.writeInt(strings.indexOf(synonym));
+					}
+				}
+			}
+		}
+		HashMap<String, String> idMap = vocab.getIDMap();
+		if (idMap == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(idMap.size());
+			for (Map.Entry<String, String> e : idMap.entrySet()) {
+				out.writeInt(strings.indexOf(e.getKey()));
+				out.writeInt(strings.indexOf(e.getValue()));
+			}
+		}
+		IDPostings idPostings = vocab.getIDPostings();
+		if (idPostings == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(idPostings.size());
+			for (String key : idPostings.getKeys()) {
+				List<String> ids = idPostings.get(key);
+				out.writeInt(strings.indexOf(key));
+				out.writeInt(ids.size());
+				for (String id : ids) {
+					out.writeInt(strings.indexOf(id));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read all vocabularies of a snapshot.
+	 * 
+	 * @param filepath
+	 *            The file.
+	 * @param vocabs
+	 *            The vector to add the vocabularies to.
+	 * @param segmentSize
+	 *            The number of bytes mapped at once.
+	 * @return The stopword vocabulary or null.
+	 */
+	private static Vocabulary read(String filepath, Vector<Vocabulary> vocabs,
+			int segmentSize) throws Exception {
+		RandomAccessFile file = new RandomAccessFile(filepath, "r");
+		try {
+			MappedInput in = new MappedInput(file.getChannel(), segmentSize);
+			long size = in.size();
+			if (size < HEADER_SIZE + TRAILER_SIZE || in.getInt() != MAGIC)
+				throw new IOException("not a vocabulary snapshot: " + filepath);
+			int version = in.getInt();
+			if (version != VERSION)
+				throw new IOException("unsupported snapshot version " + version
+						+ ": " + filepath);
+			long payloadEnd = size - TRAILER_SIZE;
+			long crc = in.checksum(payloadEnd);
+			in.seek(payloadEnd);
+			if (in.getLong() != crc)
+				throw new IOException("snapshot checksum mismatch: "
+						+ filepath);
+			in.seek(HEADER_SIZE);
+			String[] strings = new String[in.getInt()];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = in.getString();
+			}
+			boolean hasStopwords = in.getInt() == 1;
+			int vocabNum = in.getInt();
+			Vocabulary stopwords = null;
+			for (int v = 0; v < vocabNum; v++) {
+				Vocabulary vocab = readVocabulary(in, strings);
+				if (v == 0 && hasStopwords)
+					stopwords = vocab;
+				else
+					vocabs.add(vocab);
+			}
+			return stopwords;
+		} finally {
+			file.close();
+		}
+	}
+
+	private static Vocabulary readVocabulary(MappedInput in, String[] strings)
+			throws IOException {
+		Vocabulary vocab = new Vocabulary(string(strings, in.getInt()));
+		vocab.setVocabSeparator(string(strings, in.getInt()));
+		int flags = in.getInt();
+		vocab.set_withSynonyms((flags & FLAG_WITH_SYNONYMS) != 0);
+		vocab.set_includeIDinSearch((flags & FLAG_ID_IN_SEARCH) != 0);
+		vocab.setMultipleIDs((flags & FLAG_MULTIPLE_IDS) != 0);
+		Vector<VocabEntry> entries = null;
+		int entryNum = in.getInt();
+		if (entryNum >= 0) {
+			entries = new Vector<VocabEntry>(entryNum);
+			for (int i = 0; i < entryNum; i++) {
+				String key = string(strings, in.getInt());
+				boolean hasSynonyms = (in.getInt() & FLAG_HAS_SYNONYMS) != 0;
+				String[] synonyms = null;
+				int synonymNum = in.getInt();
+				if (synonymNum >= 0) {
+					synonyms = new String[synonymNum];
+					for (int k = 0; k < synonymNum; k++) {
+						synonyms[k] = string(strings, in.getInt());
+					}
+				}
+				entries.add(new VocabEntry(key, synonyms, hasSynonyms));
+			}
+		}
+		HashMap<String, String> idMap = null;
+		int idNum = in.getInt();
+		if (idNum >= 0) {
+			idMap = new HashMap<String, String>(idNum * 4 / 3 + 1);
+			for (int i = 0; i < idNum; i++) {
+				String key = string(strings, in.getInt());
+				idMap.put(key, string(strings, in.getInt()));
+			}
+		}
+		IDPostings idPostings = null;
+		int multipleNum = in.getInt();
+		if (multipleNum >= 0) {
+			idPostings = new IDPostings();
+			for (int i = 0; i < multipleNum; i++) {
+				String key = string(strings, in.getInt());
+				int idsNum = in.getInt();
+				for (int k = 0; k < idsNum; k++) {
+					idPostings.add(key, string(strings, in.getInt()));
+				}
+			}
+		}
+		vocab.restoreEntries(entries, idMap, idPostings);
+		return vocab;
+	}
+
+	private static String string(String[] strings, int index) {
+		return index < 0 ? null : strings[index];
+	}
+
+	/**
+	 * The distinct strings of a snapshot, null is stored as -1.
+	 */
+	private static class StringTable {
+		private HashMap<String, Integer> _indexes =
+				new HashMap<String, Integer>();
+		private Vector<String> _strings = new Vector<String>();
+
+		void add(String s) {
+			if (s != null && !_indexes.containsKey(s)) {
+				_indexes.put(s, _strings.size());
+				_strings.add(s);
+			}
+		}
+
+		int indexOf(String s) {
+			return s == null ? -1 : _indexes.get(s);
+		}
+
+		int size() {
+			return _strings.size();
+		}
+
+		Vector<String> getStrings() {
+			return _strings;
+		}
+	}
+
+	/**
+	 * Reads a file through memory mapped segments, a new segment is mapped
+	 * when a value crosses the end of the current one.
+	 */
+	private static class MappedInput {
+		private final FileChannel _channel;
+		private final long _size;
+		private final int _segmentSize;
+		private MappedByteBuffer _segment = null;
+		private long _segmentStart = 0, _pos = 0;
+		private byte[] _bytes = new byte[256];
+
+		MappedInput(FileChannel channel, int segmentSize) throws IOException {
+			_channel = channel;
+			_size = channel.size();
+			_segmentSize = segmentSize;
+		}
+
+		long size() {
+			return _size;
+		}
+
+		void seek(long pos) {
+			_pos = pos;
+		}
+
+		private MappedByteBuffer ensure(int len) throws IOException {
+			if (_pos + len > _size)
+				throw new IOException("snapshot truncated");
+			if (_segment == null || _pos < _segmentStart
+					|| _pos + len > _segmentStart + _segment.capacity()) {
+				_segmentStart = _pos;
+				long mapSize = Math.min(Math.max(_segmentSize, len), _size
+						- _pos);
+				_segment = _channel.map(FileChannel.MapMode.READ_ONLY, _pos,
+						mapSize);
+			}
+			_segment.position((int) (_pos - _segmentStart));
+			_pos += len;
+			return _segment;
+		}
+
+		int getInt() throws IOException {
+			return ensure(4).getInt();
+		}
+
+		long getLong() throws IOException {
+			return ensure(8).getLong();
+		}
+
+		String getString() throws IOException {
+			int len = getInt();
+			if (len < 0)
+				throw new IOException("snapshot corrupt");
+			if (_bytes.length < len)
+				_bytes = new byte[Math.max(len, _bytes.length * 2)];
+			ensure(len).get(_bytes, 0, len);
+			return new String(_bytes, 0, len, UTF8);
+		}
+
+		/**
+		 * Compute the CRC32 from the current position to an end position.
+		 */
+		long checksum(long end) throws IOException {
+			CRC32 crc = new CRC32();
+			while (_pos < end) {
+				int len = (int) Math.min(_segmentSize, end - _pos);
+				MappedByteBuffer segment = ensure(len);
+				segment.limit(segment.position() + len);
+				crc.update(segment);
+				segment.limit(segment.capacity());
+			}
+			return crc.getValue();
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.tlabs.rootvole;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * The vocabularies the tests of {@link VocabularySnapshot} and
+ * {@link MappedVocabulary} write and read back.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+class CarVocabularies {
+	/**
+	 * Strings to look up, some of them aren't in {@link #cars(boolean)}.
+	 */
+	static final String[] LOOKUPS = { "vw", "volkswagen", "golf",
+			"bayerische motorenwerke", "\u0161koda", "\ud83d\ude97 tesla",
+			"audi", "bayerische", "\ud83d\ude97" };
+
+	private CarVocabularies() {
+	}
+
+	/**
+	 * Get a vocabulary with a synonym of several words, one with two ids and
+	 * ones with characters of two and four bytes in UTF-8.
+	 */
+	static Vocabulary cars(boolean multipleIds) {
+		Vocabulary vocab = new Vocabulary("cars");
+		vocab.setMultipleIDs(multipleIds);
+		vocab.loadVocabFromVector(new Vector<String>(Arrays.asList(
+				"vw,volkswagen,golf", "bmw,bayerische motorenwerke",
+				"seat,golf", "skoda,\u0161koda", "tesla,\ud83d\ude97 tesla")),
+				true);
+		return vocab;
+	}
+
+	/**
+	 * Get a vocabulary with many entries, its files span several small
+	 * segments. The ids take 24 bytes in a mapped file, which doesn't divide
+	 * a segment.
+	 */
+	static Vocabulary many(int num) {
+		Vector<String> lines = new Vector<String>();
+		for (int i = 0; i < num; i++) {
+			lines.add("identifier-" + i + "-x,car " + i + ",\u0161koda" + i
+					% 30);
+		}
+		Vocabulary vocab = new Vocabulary("many");
+		vocab.setMultipleIDs(true);
+		vocab.loadVocabFromVector(lines, true);
+		return vocab;
+	}
+}
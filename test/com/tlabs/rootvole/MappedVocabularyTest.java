@@ -0,0 +1,139 @@
+package com.tlabs.rootvole;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link MappedVocabulary}, lookups in the mapped file and parses
+ * with it must give the same as the vocabulary it was written from.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class MappedVocabularyTest {
+	private File _file;
+
+	@Before
+	public void setUp() throws IOException {
+		_file = File.createTempFile("mapped", ".bin");
+	}
+
+	@After
+	public void tearDown() {
+		_file.delete();
+	}
+
+	private MappedVocabulary write(Vocabulary vocab) throws Exception {
+		MappedVocabulary.write(vocab, _file.getPath());
+		return new MappedVocabulary(vocab.getId(), _file.getPath());
+	}
+
+	private static void assertSameLookups(Vocabulary vocab,
+			MappedVocabulary mapped, String... lookups) {
+		for (String s : lookups) {
+			assertEquals(s, vocab.getIDFromVocab(s), mapped.getIDFromVocab(s));
+			if (vocab.isMultiplIDs())
+				assertEquals(s, vocab.getIDsFromVocab(s) == null ? null
+						: new TreeSet<String>(vocab.getIDsFromVocab(s)),
+						mapped.getIDsFromVocab(s) == null ? null
+								: new TreeSet<String>(mapped
+										.getIDsFromVocab(s)));
+		}
+	}
+
+	@Test
+	public void testLookup() throws Exception {
+		for (boolean multipleIds : new boolean[] { false, true }) {
+			Vocabulary vocab = CarVocabularies.cars(multipleIds);
+			MappedVocabulary mapped = write(vocab);
+			assertEquals(multipleIds, mapped.isMultiplIDs());
+			assertEquals(2, mapped.getMaxWordNum());
+			assertSameLookups(vocab, mapped, CarVocabularies.LOOKUPS);
+			assertNull(mapped.getIDFromVocab("bayerische"));
+		}
+	}
+
+	@Test
+	public void testSurrogateKeys() throws Exception {
+		MappedVocabulary mapped = write(CarVocabularies.cars(false));
+		// the keys are compared with the UTF-8 bytes in the file
+		assertEquals("tesla", mapped.getIDFromVocab("\ud83d\ude97 tesla"));
+		assertNull(mapped.getIDFromVocab("\ud83d\ude98 tesla"));
+		assertNull(mapped.getIDFromVocab("\ud83d tesla"));
+		assertNull(mapped.getIDFromVocab("\ud83d\ude97"));
+		assertNull(mapped.getIDFromVocab("\ud83d\ude97 tesl"));
+	}
+
+	@Test
+	public void testVocabAsArray() throws Exception {
+		Vocabulary vocab = CarVocabularies.cars(true);
+		assertEquals(new TreeSet<String>(Arrays.asList(vocab
+				.getVocabAsArray())), new TreeSet<String>(Arrays
+				.asList(write(vocab).getVocabAsArray())));
+	}
+
+	@Test
+	public void testSegmentPadding() throws Exception {
+		Vocabulary vocab = CarVocabularies.many(300);
+		// records mustn't cross the segments of 256 bytes
+		MappedVocabulary.write(vocab, _file.getPath(), 8);
+		MappedVocabulary mapped = new MappedVocabulary("many",
+				_file.getPath());
+		assertEquals(300, mapped.getVocabAsArray().length);
+		assertEquals(new TreeSet<String>(Arrays.asList(vocab
+				.getVocabAsArray())), new TreeSet<String>(Arrays
+				.asList(mapped.getVocabAsArray())));
+		for (int i = 0; i < 300; i++) {
+			assertSameLookups(vocab, mapped, "car " + i, "identifier-" + i
+					+ "-x");
+		}
+		assertSameLookups(vocab, mapped, "\u0161koda3", "car 300");
+	}
+
+	@Test
+	public void testParse() throws Exception {
+		Vocabulary vocab = CarVocabularies.cars(true);
+		MappedVocabulary.write(vocab, _file.getPath());
+		Parser parser = new Parser("test");
+		parser.addVocabulary(vocab);
+		Parser mappedParser = new Parser("test");
+		mappedParser.addVocabulary(new MappedVocabulary("cars", _file
+				.getPath()));
+		for (String input : new String[] { "ein golf",
+				"bayerische motorenwerke oder \u0161koda",
+				"ein \ud83d\ude97 tesla", "nichts" }) {
+			for (int depth : new int[] { 1, 2,
+					Constants.CONTEXT_DEPTH_AUTO }) {
+				assertEquals(input, parser.parse(input, depth).toString(),
+						mappedParser.parse(input, depth).toString());
+			}
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testReadOnly() throws Exception {
+		MappedVocabulary.write(CarVocabularies.cars(false), _file.getPath());
+		new MappedVocabulary("cars", _file.getPath()).putEntry("audi");
+	}
+
+	@Test(expected = IOException.class)
+	public void testWrongFormat() throws Exception {
+		FileOutputStream out = new FileOutputStream(_file);
+		try {
+			out.write(new byte[128]);
+		} finally {
+			out.close();
+		}
+		new MappedVocabulary("cars", _file.getPath());
+	}
+}
@@ -0,0 +1,59 @@
+package com.tlabs.rootvole;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link NumberScanner}, thousands separators and decimal points
+ * or commas in the words next to a unit.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class NumberScannerTest {
+
+	private static void assertDouble(double expected, String word) {
+		assertEquals(word, expected, NumberScanner.scanDouble(word), 0);
+	}
+
+	@Test
+	public void testScanInt() {
+		assertEquals(30000, NumberScanner.scanInt("30.000"));
+		assertEquals(-5, NumberScanner.scanInt("-5"));
+		assertEquals(NumberScanner.NO_INT, NumberScanner.scanInt("euro"));
+		assertEquals(NumberScanner.NO_INT, NumberScanner.scanInt("2,5"));
+	}
+
+	@Test
+	public void testDecimal() {
+		assertDouble(2.5, "2.5");
+		assertDouble(2.5, "2,5");
+		assertDouble(-0.5, "-.5");
+		assertDouble(1000, "1e3");
+		assertDouble(0.125, "0.125");
+		assertDouble(1234.567, "1234.567");
+		// a single comma is always a decimal comma
+		assertDouble(1, "1,000");
+	}
+
+	@Test
+	public void testThousands() {
+		assertDouble(3000, "3.000");
+		assertDouble(1000000, "1.000.000");
+		assertDouble(1000000, "1,000,000");
+		assertDouble(1000.5, "1.000,50");
+		assertDouble(1000.5, "1,000.50");
+		assertDouble(-12345.6, "-12.345,6");
+	}
+
+	@Test
+	public void testNoNumber() {
+		for (String word : new String[] { "euro", "", ".", "1.000,5.0",
+				"12.34.567", "1.00.000", "1234.567.890", "0.000.000", "1e",
+				"2.5x" }) {
+			assertTrue(word, Double.isNaN(NumberScanner.scanDouble(word)));
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.tlabs.rootvole;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ParseCache}, the eviction of results when it is full and
+ * the results dropped when the parser or its vocabularies change.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class ParseCacheTest {
+	private static final int[] COUNTS = new int[] { 1, 2 };
+	private final Object _compiled = new Object();
+
+	private static ParseResult result(String input) {
+		return new ParseResult(input, "test", "1");
+	}
+
+	private static Parser cars(ParseCache cache) {
+		Vocabulary vocab = new Vocabulary("cars");
+		vocab.loadVocabFromVector(new Vector<String>(Arrays.asList(
+				"vw,volkswagen", "bmw,bayerische")), true);
+		Parser parser = new Parser("test");
+		parser.addVocabulary(vocab);
+		parser.setParseCache(cache);
+		return parser;
+	}
+
+	@Test
+	public void testHit() {
+		ParseCache cache = new ParseCache();
+		Parser parser = cars(cache);
+		parser.setInputToLower(true);
+		ParseResult first = parser.parse("Volkswagen bayerische", 1);
+		ParseResult second = parser.parse("volkswagen bayerische", 1);
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		// the cached result is copied for the input asked for
+		assertEquals(first.toString().replace("Volkswagen", "volkswagen"),
+				second.toString());
+		// each parse gets its own copy to change
+		assertNotSame(second, parser.parse("volkswagen bayerische", 1));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testEviction() {
+		ParseCache cache = new ParseCache(2);
+		int generation = cache.validate(_compiled, COUNTS);
+		cache.put("a", 1, result("a"), generation);
+		cache.put("b", 1, result("b"), generation);
+		assertEquals(2, cache.size());
+		// a one-off input doesn't replace the results there are
+		cache.put("c", 1, result("c"), generation);
+		assertEquals(0, cache.getEvictionCount());
+		assertNull(cache.get("c", 1));
+		// but one asked for more often than the least recently used does
+		assertNull(cache.get("c", 1));
+		assertNull(cache.get("c", 1));
+		cache.put("c", 1, result("c"), generation);
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(2, cache.size());
+		assertNotNull(cache.get("c", 1));
+		assertNotNull(cache.get("b", 1));
+		assertNull(cache.get("a", 1));
+		assertNull(cache.get("c", 2));
+	}
+
+	@Test
+	public void testValidate() {
+		ParseCache cache = new ParseCache();
+		int generation = cache.validate(_compiled, COUNTS);
+		cache.put("a", 1, result("a"), generation);
+		assertEquals(generation, cache.validate(_compiled, new int[] { 1, 2 }));
+		assertNotNull(cache.get("a", 1));
+		// another change count drops the results
+		int changed = cache.validate(_compiled, new int[] { 1, 3 });
+		assertEquals(0, cache.size());
+		// a result parsed before isn't cached anymore
+		cache.put("a", 1, result("a"), generation);
+		assertEquals(0, cache.size());
+		cache.put("a", 1, result("a"), changed);
+		assertEquals(1, cache.size());
+		// and so does another compiled parser
+		cache.validate(new Object(), new int[] { 1, 3 });
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testVocabularyChange() {
+		ParseCache cache = new ParseCache();
+		Parser parser = cars(cache);
+		String input = "volkswagen ingolstadt";
+		assertEquals(1, parser.parse(input, 1).getEntities().size());
+		assertEquals(1, parser.parse(input, 1).getEntities().size());
+		assertEquals(1, cache.getHitCount());
+		parser.getVocabularies().get(0).putEntry("audi,ingolstadt");
+		assertEquals(2, parser.parse(input, 1).getEntities().size());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(1, cache.size());
+	}
+}
@@ -0,0 +1,102 @@
+package com.tlabs.rootvole;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ParseFlights}, concurrent parses of the same input must
+ * share one parse and give the same result as a parse of their own.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class ParseFlightsTest {
+	private static final int THREADS = 8;
+
+	private static CompiledParser cars() {
+		Vector<String> lines = new Vector<String>();
+		for (int i = 0; i < 2000; i++) {
+			lines.add("id" + i + ",word" + i + ",word" + i + " word"
+					+ (i + 1));
+		}
+		Vocabulary vocab = new Vocabulary("cars");
+		vocab.setMultipleIDs(true);
+		vocab.loadVocabFromVector(lines, true);
+		Parser parser = new Parser("test");
+		parser.addVocabulary(vocab);
+		return parser.compile();
+	}
+
+	private static String input() {
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 3000; i++) {
+			input.append("word").append(i % 2100).append(' ');
+		}
+		return input.toString().trim();
+	}
+
+	@Test
+	public void testJoin() throws Exception {
+		final CompiledParser compiled = cars();
+		final String input = input();
+		final int[] changeCounts = new int[] { 0 };
+		final ParseFlights flights = new ParseFlights();
+		final String expected = compiled.parse(input, 2).toString();
+		// the threads start at once, so some find the parse still running
+		for (int round = 0; round < 50 && flights.getJoinedCount() == 0;
+				round++) {
+			final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+			final String[] results = new String[THREADS];
+			Thread[] threads = new Thread[THREADS];
+			for (int t = 0; t < THREADS; t++) {
+				final int num = t;
+				threads[t] = new Thread() {
+					public void run() {
+						try {
+							barrier.await();
+							results[num] = flights.parse(compiled,
+									changeCounts, input, input, 2).toString();
+						} catch (Exception e) {
+							e.printStackTrace();
+						}
+					}
+				};
+				threads[t].start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			for (String result : results) {
+				assertEquals(expected, result);
+			}
+		}
+		assertTrue(flights.getJoinedCount() > 0);
+		// a finished parse isn't joined anymore
+		long joined = flights.getJoinedCount();
+		assertNotNull(flights.parse(compiled, changeCounts, input, input, 2));
+		assertEquals(joined, flights.getJoinedCount());
+	}
+
+	@Test
+	public void testParser() {
+		Parser parser = new Parser("test");
+		Vocabulary vocab = new Vocabulary("cars");
+		vocab.loadVocabFromVector(new Vector<String>(Arrays.asList(
+				"vw,volkswagen", "bmw,bayerische")), true);
+		parser.addVocabulary(vocab);
+		String input = "volkswagen oder bayerische";
+		String expected = parser.parse(input, 1).toString();
+		parser.setCoalescing(true);
+		assertEquals(expected, parser.parse(input, 1).toString());
+		assertEquals(0, parser.getCoalescedCount());
+		parser.setCoalescing(false);
+		assertEquals(expected, parser.parse(input, 1).toString());
+	}
+}
@@ -0,0 +1,185 @@
+package com.tlabs.rootvole;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ParseSession}, each hypothesis must give the same result
+ * as {@link CompiledParser#parse(String, int)} of the whole input.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class ParseSessionTest {
+	private static final String[] WORDS = { "a", "b", "c", "d", "e",
+			"\u00c4h" };
+	private static final String[] OTHERS = { "s", "300", "euro", "max",
+			"bis", "min", "zz", "A", "5" };
+
+	/**
+	 * Get the result with the positions of the entities in the input.
+	 */
+	private static String dump(ParseResult result) {
+		StringBuilder ret = new StringBuilder(result.toString());
+		for (Entity entity : result.getEntities()) {
+			ret.append(" [").append(entity.getCharStart()).append('-')
+					.append(entity.getCharEnd()).append(']');
+		}
+		return ret.append(" rest: ").append(result.getRest()).toString();
+	}
+
+	private static String word(Random random) {
+		if (random.nextInt(3) == 0)
+			return OTHERS[random.nextInt(OTHERS.length)];
+		return WORDS[random.nextInt(WORDS.length)];
+	}
+
+	private static Vocabulary vocabulary(Random random, String id) {
+		Vocabulary vocab = new Vocabulary(id);
+		vocab.setMultipleIDs(random.nextBoolean());
+		vocab.setCompactionThreshold(1000);
+		Vector<String> lines = new Vector<String>();
+		for (int e = 0; e < 5; e++) {
+			StringBuilder line = new StringBuilder("id" + e);
+			for (int s = 0; s < 2; s++) {
+				line.append(',');
+				int num = 1 + random.nextInt(3);
+				for (int w = 0; w < num; w++) {
+					if (w > 0)
+						line.append(' ');
+					line.append(WORDS[random.nextInt(WORDS.length)]
+							.toLowerCase());
+				}
+			}
+			lines.add(line.toString());
+		}
+		vocab.loadVocabFromVector(lines, true);
+		return vocab;
+	}
+
+	private static Parser parser(Random random, List<Vocabulary> vocabs) {
+		Parser parser = new Parser("test");
+		parser.setInputToLower(random.nextBoolean());
+		parser.setFoldUmlauts(random.nextBoolean());
+		for (int v = 0; v < 2; v++) {
+			Vocabulary vocab = vocabulary(random, "v" + v);
+			parser.addVocabulary(vocab);
+			vocabs.add(vocab);
+		}
+		if (random.nextBoolean())
+			parser.setStopwords(new Vocabulary("stop", new String[] { "s" }));
+		ValueDescription price = new ValueDescription("price", true, false);
+		price.set_units(new VocabEntry(new String[] { "euro", "euro" }));
+		price.set_maxConstraints(new VocabEntry(new String[] { "max", "max" }));
+		price.set_minConstraints(new VocabEntry(new String[] { "min", "min" }));
+		price.set_betweenWords(new VocabEntry(new String[] { "bis", "bis" }));
+		parser.addValueDesciptions(price);
+		return parser;
+	}
+
+	@Test
+	public void testSameAsParse() {
+		Random random = new Random(11);
+		int entities = 0, values = 0;
+		for (int round = 0; round < 100; round++) {
+			List<Vocabulary> vocabs = new ArrayList<Vocabulary>();
+			Parser parser = parser(random, vocabs);
+			int depth = random.nextInt(3) == 0 ? Constants.CONTEXT_DEPTH_AUTO
+					: 1 + random.nextInt(4);
+			ParseSession session = parser.newSession(depth);
+			List<String> hypothesis = new ArrayList<String>();
+			for (int h = 0; h < 30; h++) {
+				int op = random.nextInt(20);
+				if (op < 10 || hypothesis.isEmpty()) {
+					hypothesis.add(word(random));
+				} else if (op < 14) {
+					hypothesis.set(hypothesis.size() - 1, word(random));
+				} else if (op < 16) {
+					hypothesis.remove(hypothesis.size() - 1);
+				} else if (op < 18) {
+					int i = random.nextInt(hypothesis.size());
+					hypothesis.set(i, hypothesis.get(i)
+							+ WORDS[random.nextInt(WORDS.length)]);
+				} else if (op < 19) {
+					vocabs.get(random.nextInt(2)).putEntry(
+							"id" + random.nextInt(8) + ","
+									+ WORDS[random.nextInt(5)] + " "
+									+ WORDS[random.nextInt(5)]);
+				} else {
+					vocabs.get(random.nextInt(2)).compact();
+				}
+				StringBuilder in = new StringBuilder();
+				for (int i = 0; i < hypothesis.size(); i++) {
+					if (i > 0)
+						in.append(random.nextInt(6) == 0 ? "  " : " ");
+					in.append(hypothesis.get(i));
+				}
+				String input = in.toString();
+				String last = session.getInput();
+				ParseResult result;
+				if (last.length() > 0 && input.startsWith(last + " ")
+						&& random.nextBoolean())
+					result = session.append(input.substring(last.length() + 1));
+				else
+					result = session.update(input);
+				ParseResult expected = parser.compile().parse(input, depth);
+				assertEquals(input, dump(expected), dump(result));
+				entities += result.getEntities().size();
+				values += result.getValues().size();
+			}
+		}
+		// the inputs must find something to compare
+		assertTrue(entities > 0);
+		assertTrue(values > 0);
+	}
+
+	@Test
+	public void testValuesWordByWord() {
+		Parser parser = parser(new Random(5), new ArrayList<Vocabulary>());
+		ParseSession session = parser.newSession(1);
+		// the interval takes words from before the ones appended
+		String[] inputs = { "max 5 euro", "max 5 euro golf 200",
+				"max 5 euro golf 200 bis", "max 5 euro golf 200 bis 300",
+				"max 5 euro golf 200 bis 300 euro",
+				"max 5 euro golf 200 bis 300 golf", "5 golf 200 bis 300 euro" };
+		for (String input : inputs) {
+			assertEquals(input, dump(parser.compile().parse(input, 1)),
+					dump(session.update(input)));
+		}
+		session.update(inputs[4]);
+		assertEquals(2, session.getResult().getValues().size());
+		assertEquals(true, session.getResult().getValues().get(0).is_isMax());
+		assertEquals(200, session.getResult().getValues().get(1)
+				.getValueLowerInt());
+	}
+
+	@Test
+	public void testFollowsParser() {
+		Vocabulary vocab = new Vocabulary("cars");
+		vocab.loadVocabFromVector(new Vector<String>(Arrays.asList(
+				"vw,volkswagen", "bmw,bayerische")), true);
+		Parser parser = new Parser("test");
+		parser.addVocabulary(vocab);
+		ParseSession session = parser.newSession(1);
+		ParseSession fixed = parser.compile().newSession(1);
+		assertEquals(1, session.update("volkswagen ingolstadt").getEntities()
+				.size());
+		fixed.update("volkswagen ingolstadt");
+		vocab.putEntry("audi,ingolstadt");
+		vocab.compact();
+		vocab.putEntry("seat,spanien");
+		ParseResult result = session.append("spanien");
+		assertEquals(3, result.getEntities().size());
+		assertEquals("volkswagen ingolstadt spanien", session.getInput());
+		// the compiled parser of the other one misses the last change
+		assertEquals(2, fixed.append("spanien").getEntities().size());
+	}
+}
@@ -0,0 +1,109 @@
+package com.tlabs.rootvole;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Vector;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ValueScanner}, the values must be found as if
+ * {@link ValueDescription#searchValue(String[])} was called for each
+ * description on the rest left by the ones before.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class ValueScannerTest {
+
+	private static ValueDescription price() {
+		ValueDescription price = new ValueDescription("price", true, false);
+		price.set_units(new VocabEntry(new String[] { "euro", "euro" }));
+		price.set_maxConstraints(new VocabEntry(new String[] { "max", "max" }));
+		price.set_betweenWords(new VocabEntry(new String[] { "bis", "bis" }));
+		return price;
+	}
+
+	private static ValueDescription year() {
+		ValueDescription year = new ValueDescription("year", false, false);
+		year.set_units(new VocabEntry(new String[] { "baujahr", "baujahr" }));
+		return year;
+	}
+
+	private static Vector<Value> scan(String input, ValueDescription... d) {
+		ParseResult result = new ParseResult(input, "test", "1");
+		new ValueScanner(d).scan(input.split(" "), result,
+				new ParseScratch());
+		return result.getValues();
+	}
+
+	@Test
+	public void testEarlierDescriptionWins() {
+		Vector<Value> values = scan("baujahr 2003 euro", price(), year());
+		assertEquals(1, values.size());
+		assertEquals("price", values.get(0).get_valuesId());
+		assertEquals(2003, values.get(0).get_integerValue());
+		values = scan("baujahr 2003 euro", year(), price());
+		assertEquals(1, values.size());
+		assertEquals("year", values.get(0).get_valuesId());
+	}
+
+	@Test
+	public void testSharedUnit() {
+		ValueDescription postfix = price();
+		ValueDescription prefix = new ValueDescription("rate", false, false);
+		prefix.set_units(new VocabEntry(new String[] { "euro", "euro" }));
+		// the first description finds no number before the unit
+		Vector<Value> values = scan("euro 5", postfix, prefix);
+		assertEquals(1, values.size());
+		assertEquals("rate", values.get(0).get_valuesId());
+		assertEquals(5, values.get(0).get_integerValue());
+	}
+
+	@Test
+	public void testEveryOccurrence() {
+		Vector<Value> values = scan("200 euro golf max 300 euro", price());
+		assertEquals(2, values.size());
+		assertEquals(200, values.get(0).get_integerValue());
+		assertEquals(300, values.get(1).get_integerValue());
+		assertEquals(true, values.get(1).is_isMax());
+	}
+
+	@Test
+	public void testNextToUnit() {
+		String[] words = "5 200 euro euro".split(" ");
+		ParseResult result = new ParseResult("", "test", "1");
+		String[] rest = new ValueScanner(new ValueDescription[] { price() })
+				.scan(words, result, new ParseScratch());
+		assertEquals(1, result.getValues().size());
+		assertEquals(200, result.getValues().get(0).get_integerValue());
+		// the unit word without a number is dropped like the other one
+		assertArrayEquals(new String[] { "5" }, rest);
+		// but stays if the description found no value at all
+		words = "euro golf".split(" ");
+		assertSame(words, new ValueScanner(new ValueDescription[] { price() })
+				.scan(words, result, new ParseScratch()));
+	}
+
+	@Test
+	public void testRestOfDescriptionBefore() {
+		// the year is searched in "baujahr 2003" left by the price
+		Vector<Value> values = scan("baujahr 2003 euro 2003", price(), year());
+		assertEquals(2, values.size());
+		assertEquals("price", values.get(0).get_valuesId());
+		assertEquals("year", values.get(1).get_valuesId());
+		assertEquals(2003, values.get(1).get_integerValue());
+	}
+
+	@Test
+	public void testRest() {
+		String[] words = "golf 200 bis 300 euro baujahr 2003 black".split(" ");
+		ParseResult result = new ParseResult("", "test", "1");
+		String[] rest = new ValueScanner(new ValueDescription[] { price(),
+				year() }).scan(words, result, new ParseScratch());
+		assertArrayEquals(new String[] { "golf", "black" }, rest);
+		assertEquals(200, result.getValues().get(0).getValueLowerInt());
+	}
+}
@@ -0,0 +1,206 @@
+package com.tlabs.rootvole;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.Vector;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link Vocabulary#putEntry(String)},
+ * {@link Vocabulary#removeEntry(String)} and {@link Vocabulary#compact()},
+ * a changed vocabulary must answer lookups and parses like one freshly
+ * loaded with the same lines.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class VocabularyDeltaTest {
+
+	private static Vector<String> lines(String... lines) {
+		return new Vector<String>(Arrays.asList(lines));
+	}
+
+	private static String entities(Parser parser, String input) {
+		ParseResult result = parser.parse(input, Constants.CONTEXT_DEPTH_AUTO);
+		TreeSet<String> entities = new TreeSet<String>();
+		for (Entity entity : result.getEntities()) {
+			entities.add(entity.toString());
+		}
+		return entities + " rest: " + result.getRest();
+	}
+
+	private static void checkChangeAndCompact(Vocabulary vocab) {
+		vocab.setCompactionThreshold(100);
+		Parser parser = new Parser("test");
+		parser.addVocabulary(vocab);
+		String input = "volkswagen bayerische ingolstadt";
+		assertEquals(2, parser.parse(input, 1).getEntities().size());
+		vocab.putEntry("audi,ingolstadt");
+		assertEquals("audi", vocab.getIDFromVocab("ingolstadt"));
+		assertEquals(3, parser.parse(input, 1).getEntities().size());
+		vocab.compact();
+		assertEquals("audi", vocab.getIDFromVocab("ingolstadt"));
+		assertEquals("vw", vocab.getIDFromVocab("volkswagen"));
+		assertEquals(3, parser.parse(input, 1).getEntities().size());
+	}
+
+	@Test
+	public void testLoadWithSynonyms() {
+		for (boolean multipleIds : new boolean[] { false, true }) {
+			Vocabulary vocab = new Vocabulary("cars");
+			vocab.setMultipleIDs(multipleIds);
+			vocab.loadVocabFromVectorWithSynonyms(lines("vw,volkswagen",
+					"bmw,bayerische"));
+			checkChangeAndCompact(vocab);
+		}
+	}
+
+	@Test
+	public void testAddWithSynonyms() {
+		Vocabulary vocab = new Vocabulary("cars", new String[0]);
+		vocab.addToVocabFromVectorWithSynonyms(lines("vw,volkswagen",
+				"bmw,bayerische"));
+		checkChangeAndCompact(vocab);
+	}
+
+	@Test
+	public void testCompactionOutdatesCompiledParser() {
+		Vocabulary vocab = new Vocabulary("cars");
+		vocab.loadVocabFromVector(lines("vw,volkswagen"), true);
+		Parser parser = new Parser("test");
+		parser.addVocabulary(vocab);
+		CompiledParser compiled = parser.compile();
+		vocab.putEntry("audi,ingolstadt");
+		assertFalse(compiled.isOutdated());
+		vocab.compact();
+		assertTrue(compiled.isOutdated());
+		assertNotSame(compiled, parser.compile());
+		assertFalse(parser.compile().isOutdated());
+		vocab.putEntry("bmw,bayerische");
+		assertEquals(2, parser.parse("bayerische ingolstadt", 1)
+				.getEntities().size());
+	}
+
+	@Test
+	public void testLoadKeepsCompiledParser() {
+		Vocabulary vocab = new Vocabulary("cars");
+		vocab.loadVocabFromVector(lines("vw,volkswagen"), true);
+		Parser parser = new Parser("test");
+		parser.addVocabulary(vocab);
+		CompiledParser compiled = parser.compile();
+		vocab.putEntry("audi,ingolstadt");
+		String input = "volkswagen ingolstadt bayerische";
+		assertEquals(2, compiled.parse(input, 1).getEntities().size());
+		// the compiled parser keeps its entries and their changes
+		vocab.loadVocabFromVector(lines("bmw,bayerische"), true);
+		assertTrue(compiled.isOutdated());
+		assertEquals(2, compiled.parse(input, 1).getEntities().size());
+		assertEquals(1, parser.parse(input, 1).getEntities().size());
+		// and so does one compiled before a merge
+		compiled = parser.compile();
+		vocab.addToVocabFromVectorWithSynonyms(lines("bmw,bmw3", "vw,golf"));
+		assertTrue(compiled.isOutdated());
+		input = "bmw3 golf bayerische";
+		assertEquals(1, compiled.parse(input, 1).getEntities().size());
+		assertEquals(3, parser.parse(input, 1).getEntities().size());
+		assertEquals("bmw", vocab.getIDFromVocab("bmw3"));
+	}
+
+	@Test
+	public void testChangeOneEntryOften() {
+		Vocabulary vocab = new Vocabulary("cars");
+		vocab.setCompactionThreshold(1000);
+		vocab.loadVocabFromVector(lines("vw,volkswagen"), true);
+		Parser parser = new Parser("test");
+		parser.addVocabulary(vocab);
+		CompiledParser compiled = parser.compile();
+		for (int i = 0; i < 100; i++) {
+			vocab.putEntry("audi,a" + i + (i % 2 == 0 ? " quattro" : ""));
+		}
+		vocab.putEntry("audi,a100");
+		assertEquals(1, vocab.getDelta().size());
+		assertEquals(null, vocab.getIDFromVocab("a98 quattro"));
+		assertEquals("audi", vocab.getIDFromVocab("a100"));
+		// the longest string left with the replaced entries
+		assertEquals(1, compiled.getMaxDepth());
+		assertEquals(2, compiled.parse("volkswagen a100", 1).getEntities()
+				.size());
+	}
+
+	@Test
+	public void testSameAsLoaded() {
+		Random random = new Random(3);
+		for (int t = 0; t < 40; t++) {
+			boolean multipleIds = random.nextBoolean();
+			LinkedHashMap<String, String> model =
+					new LinkedHashMap<String, String>();
+			HashSet<String> used = new HashSet<String>();
+			Vocabulary vocab = new Vocabulary("v");
+			vocab.setMultipleIDs(multipleIds);
+			vocab.setCompactionThreshold(1000);
+			vocab.loadVocabFromVector(new Vector<String>(), true);
+			Parser parser = new Parser("test");
+			parser.addVocabulary(vocab);
+			for (int op = 0; op < 30; op++) {
+				String id = "k" + random.nextInt(10);
+				if (random.nextInt(3) == 0) {
+					vocab.removeEntry(id);
+					model.remove(id);
+				} else {
+					String line = line(random, id, multipleIds, used);
+					vocab.putEntry(line);
+					model.remove(id);
+					model.put(id, line);
+				}
+				if (random.nextInt(6) == 0)
+					vocab.compact();
+				Vocabulary loaded = new Vocabulary("v");
+				loaded.setMultipleIDs(multipleIds);
+				loaded.loadVocabFromVector(
+						new Vector<String>(model.values()), true);
+				Parser loadedParser = new Parser("test");
+				loadedParser.addVocabulary(loaded);
+				for (int w = 0; w < 12; w++) {
+					String s = "w" + w;
+					assertEquals(s, loaded.getIDFromVocab(s),
+							vocab.getIDFromVocab(s));
+					assertEquals(s, new TreeSet<String>(loaded
+							.getIDsForVocabSearch(s)), new TreeSet<String>(
+							vocab.getIDsForVocabSearch(s)));
+				}
+				String input = "w" + random.nextInt(12) + " w"
+						+ random.nextInt(12) + " k" + random.nextInt(10);
+				assertEquals(input, entities(loadedParser, input),
+						entities(parser, input));
+			}
+		}
+	}
+
+	/**
+	 * Make a line with one or two synonyms. For single ids each synonym is
+	 * only used once, so it doesn't matter which entry is the last one.
+	 */
+	private static String line(Random random, String id, boolean multipleIds,
+			HashSet<String> used) {
+		StringBuilder line = new StringBuilder(id);
+		int num = 1 + random.nextInt(2);
+		for (int i = 0; i < num; i++) {
+			String synonym = "w" + random.nextInt(12);
+			if (random.nextBoolean())
+				synonym += " w" + random.nextInt(12);
+			if (!multipleIds && !used.add(synonym))
+				continue;
+			line.append(',').append(synonym);
+		}
+		return line.toString();
+	}
+}
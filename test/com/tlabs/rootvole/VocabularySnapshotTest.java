@@ -0,0 +1,143 @@
+package com.tlabs.rootvole;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link VocabularySnapshot}, a vocabulary read back from a
+ * snapshot must answer all lookups like the one written.
+ * 
+ * @author burkhardt.felix
+ * 
+ */
+public class VocabularySnapshotTest {
+	private File _file;
+
+	@Before
+	public void setUp() throws IOException {
+		_file = File.createTempFile("snapshot", ".bin");
+	}
+
+	@After
+	public void tearDown() {
+		_file.delete();
+	}
+
+	private static void assertSameLookups(Vocabulary vocab, Vocabulary read,
+			String... lookups) {
+		for (String s : lookups) {
+			assertEquals(s, vocab.getIDFromVocab(s), read.getIDFromVocab(s));
+			assertEquals(s, vocab.getIDsFromVocab(s), read.getIDsFromVocab(s));
+			assertEquals(s, vocab.getIDsForVocabSearch(s),
+					read.getIDsForVocabSearch(s));
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		for (boolean multipleIds : new boolean[] { false, true }) {
+			Vocabulary vocab = CarVocabularies.cars(multipleIds);
+			VocabularySnapshot.write(vocab, _file.getPath());
+			Vocabulary read = VocabularySnapshot.read(_file.getPath());
+			assertEquals("cars", read.getId());
+			assertTrue(read.is_withSynonyms());
+			assertEquals(multipleIds, read.isMultiplIDs());
+			assertSameLookups(vocab, read, CarVocabularies.LOOKUPS);
+			assertEquals(Arrays.asList(vocab.getVocabAsArray()),
+					Arrays.asList(read.getVocabAsArray()));
+		}
+	}
+
+	@Test
+	public void testSegmentBoundaries() throws Exception {
+		Vocabulary vocab = CarVocabularies.many(50);
+		StringBuilder longer = new StringBuilder("long,");
+		for (int i = 0; i < 100; i++) {
+			longer.append("\u0161");
+		}
+		// written with the change, the string is longer than a segment
+		vocab.putEntry(longer.toString());
+		VocabularySnapshot.write(vocab, _file.getPath());
+		// ints and strings cross the end of segments of an odd size
+		for (int segmentSize : new int[] { 7, 13, 64 }) {
+			Vocabulary read = VocabularySnapshot.read(_file.getPath(),
+					segmentSize);
+			assertSameLookups(vocab, read, "car 0", "car 49",
+					"\u0161koda3", longer.substring(5));
+			assertEquals("long", read.getIDFromVocab(longer.substring(5)));
+		}
+	}
+
+	@Test
+	public void testStopwords() throws Exception {
+		Parser parser = new Parser("test");
+		parser.setStopwords(new Vocabulary("stop", new String[] { "ein" }));
+		VocabularySnapshot.write(parser, _file.getPath());
+		Parser loaded = new Parser("test");
+		VocabularySnapshot.load(loaded, _file.getPath());
+		assertEquals("ein", loaded.getStopwords().getIDFromVocab("ein"));
+		assertTrue(loaded.getVocabularies() == null
+				|| loaded.getVocabularies().isEmpty());
+		// without stopwords the first vocabulary isn't taken for them
+		parser = new Parser("test");
+		parser.addVocabulary(CarVocabularies.cars(false));
+		VocabularySnapshot.write(parser, _file.getPath());
+		loaded = new Parser("test");
+		VocabularySnapshot.load(loaded, _file.getPath());
+		assertNull(loaded.getStopwords());
+		assertEquals(1, loaded.getVocabularies().size());
+		assertEquals("cars", VocabularySnapshot.read(_file.getPath())
+				.getId());
+	}
+
+	@Test
+	public void testParser() throws Exception {
+		Parser parser = new Parser("test");
+		parser.addVocabulary(CarVocabularies.cars(true));
+		parser.setStopwords(new Vocabulary("stop", new String[] { "ein" }));
+		VocabularySnapshot.write(parser, _file.getPath());
+		Parser loaded = new Parser("test");
+		VocabularySnapshot.load(loaded, _file.getPath());
+		String input = "ein golf von bayerische motorenwerke";
+		ParseResult result = loaded.parse(input, 2);
+		assertEquals(parser.parse(input, 2).toString(), result.toString());
+		assertEquals("von", result.getRest());
+	}
+
+	@Test(expected = IOException.class)
+	public void testChecksumMismatch() throws Exception {
+		VocabularySnapshot.write(CarVocabularies.cars(false), _file.getPath());
+		RandomAccessFile file = new RandomAccessFile(_file, "rw");
+		try {
+			file.seek(20);
+			int b = file.read();
+			file.seek(20);
+			file.write(b ^ 1);
+		} finally {
+			file.close();
+		}
+		VocabularySnapshot.read(_file.getPath());
+	}
+
+	@Test(expected = IOException.class)
+	public void testNoSnapshot() throws Exception {
+		FileOutputStream out = new FileOutputStream(_file);
+		try {
+			out.write("vw,volkswagen,golf\nbmw,bayerische\n".getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		VocabularySnapshot.read(_file.getPath());
+	}
+}